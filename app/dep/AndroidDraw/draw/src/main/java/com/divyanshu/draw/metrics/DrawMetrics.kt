@@ -0,0 +1,100 @@
+package com.divyanshu.draw.metrics
+
+import android.os.Build
+import android.os.Debug
+import android.os.SystemClock
+import java.io.Writer
+
+/**
+ * Per-frame render and input statistics of a [com.divyanshu.draw.widget.DrawView].
+ * Durations are recorded in microseconds.
+ */
+class DrawMetrics {
+    val frameTime = Histogram("frame_time_us")
+    val inputLatency = Histogram("input_latency_us")
+
+    var isEnabled = false
+
+    var frameCount = 0L
+        private set
+    var pathCount = 0
+        private set
+    var pointCount = 0L
+        private set
+    var drawnPathCount = 0
+        private set
+    var materializedPathCount = 0
+        private set
+    var predictionError = 0f
+    var allocationRate = 0L
+        private set
+
+    private var mFrameStart = 0L
+    private var mLastAllocated = -1L
+    private var mLastAllocationSample = 0L
+
+    fun beginFrame() {
+        mFrameStart = System.nanoTime()
+        pathCount = 0
+        pointCount = 0
+        drawnPathCount = 0
+        materializedPathCount = 0
+    }
+
+    fun countPath(points: Int, drawn: Boolean, materialized: Boolean) {
+        pathCount++
+        pointCount += points
+        if (drawn)
+            drawnPathCount++
+        if (materialized)
+            materializedPathCount++
+    }
+
+    fun endFrame() {
+        frameTime.record((System.nanoTime() - mFrameStart) / 1000)
+        frameCount++
+    }
+
+    /**
+     * Records the time from the touch event being generated until the view was invalidated.
+     */
+    fun recordInput(eventTime: Long) {
+        inputLatency.record((SystemClock.uptimeMillis() - eventTime) * 1000)
+    }
+
+    /**
+     * Updates [allocationRate] in bytes per second from the runtime allocation counter, which
+     * is only available on Android 6.0 and newer.
+     */
+    fun sampleAllocations() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
+            return
+        val allocated = Debug.getRuntimeStat("art.gc.bytes-allocated")?.toLongOrNull() ?: return
+        val now = SystemClock.uptimeMillis()
+        if (mLastAllocated >= 0 && now > mLastAllocationSample)
+            allocationRate = (allocated - mLastAllocated) * 1000 / (now - mLastAllocationSample)
+        mLastAllocated = allocated
+        mLastAllocationSample = now
+    }
+
+    fun reset() {
+        frameTime.reset()
+        inputLatency.reset()
+        frameCount = 0
+        mLastAllocated = -1
+        allocationRate = 0
+    }
+
+    fun writeCsv(writer: Writer) {
+        writer.write(Histogram.CSV_HEADER + "\n")
+        writer.write(frameTime.toCsv() + "\n")
+        writer.write(inputLatency.toCsv() + "\n")
+        writer.write("frames,$frameCount,,,,,\n")
+        writer.write("paths,$pathCount,,,,,\n")
+        writer.write("points,$pointCount,,,,,\n")
+        writer.write("drawn_paths,$drawnPathCount,,,,,\n")
+        writer.write("materialized_paths,$materializedPathCount,,,,,\n")
+        writer.write("allocation_rate_bps,$allocationRate,,,,,\n")
+        writer.write("prediction_error_px,${predictionError.toInt()},,,,,\n")
+    }
+}
@@ -0,0 +1,84 @@
+package com.divyanshu.draw.metrics
+
+import java.util.Locale
+
+/**
+ * Fixed-size histogram with geometrically growing buckets. Values are usually durations in
+ * microseconds; recording never allocates, so it is cheap enough for every frame.
+ */
+class Histogram(val name: String) {
+    private val mCounts = LongArray(BOUNDS.size + 1)
+    private var mCount = 0L
+    private var mSum = 0L
+    private var mMax = 0L
+
+    @Synchronized
+    fun record(value: Long) {
+        var low = 0
+        var high = BOUNDS.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (BOUNDS[mid] < value)
+                low = mid + 1
+            else
+                high = mid
+        }
+        mCounts[low]++
+        mCount++
+        mSum += value
+        if (value > mMax)
+            mMax = value
+    }
+
+    @Synchronized
+    fun getCount(): Long {
+        return mCount
+    }
+
+    @Synchronized
+    fun getMean(): Double {
+        return if (mCount > 0) mSum.toDouble() / mCount else 0.0
+    }
+
+    @Synchronized
+    fun getMax(): Long {
+        return mMax
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile (0..100), capped at the maximum.
+     */
+    @Synchronized
+    fun getPercentile(percentile: Double): Long {
+        if (mCount == 0L)
+            return 0
+        val target = Math.ceil(mCount * percentile / 100).toLong().coerceAtLeast(1)
+        var seen = 0L
+        for (i in mCounts.indices) {
+            seen += mCounts[i]
+            if (seen >= target)
+                return if (i < BOUNDS.size) Math.min(BOUNDS[i], mMax) else mMax
+        }
+        return mMax
+    }
+
+    @Synchronized
+    fun reset() {
+        mCounts.fill(0)
+        mCount = 0
+        mSum = 0
+        mMax = 0
+    }
+
+    @Synchronized
+    fun toCsv(): String {
+        return String.format(Locale.US, "%s,%d,%.1f,%d,%d,%d,%d", name, mCount, getMean(),
+                getPercentile(50.0), getPercentile(95.0), getPercentile(99.0), mMax)
+    }
+
+    companion object {
+        const val CSV_HEADER = "name,count,mean,p50,p95,p99,max"
+
+        private val BOUNDS = LongArray(80) { i -> Math.ceil(Math.pow(1.2, i.toDouble()) * 10).toLong() }
+    }
+}
@@ -4,6 +4,10 @@ import android.graphics.Path
 import java.io.Serializable
 import java.io.Writer
 
+/**
+ * A single segment of a stroke. Strokes are stored in [PathData] now; actions remain to read
+ * sketches that were serialized as lists of [Move], [Line] and [Quad] objects.
+ */
 interface Action : Serializable {
     fun perform(path: Path)
 
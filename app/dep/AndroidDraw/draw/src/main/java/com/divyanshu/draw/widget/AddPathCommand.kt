@@ -0,0 +1,17 @@
+package com.divyanshu.draw.widget
+
+class AddPathCommand(private val path: MyPath, private val options: PaintOptions) : Command {
+    private val size = History.estimateSize(path)
+
+    override fun undo(view: DrawView) {
+        view.removePath(path)
+    }
+
+    override fun redo(view: DrawView) {
+        view.insertPath(path, options)
+    }
+
+    override fun getSize(): Long {
+        return size
+    }
+}
@@ -0,0 +1,17 @@
+package com.divyanshu.draw.widget
+
+import android.graphics.Bitmap
+
+class BackgroundCommand(private val oldBackground: Bitmap?, private val newBackground: Bitmap?) : Command {
+    override fun undo(view: DrawView) {
+        view.setBackground(oldBackground)
+    }
+
+    override fun redo(view: DrawView) {
+        view.setBackground(newBackground)
+    }
+
+    override fun getSize(): Long {
+        return (oldBackground?.byteCount ?: 0).toLong() + (newBackground?.byteCount ?: 0)
+    }
+}
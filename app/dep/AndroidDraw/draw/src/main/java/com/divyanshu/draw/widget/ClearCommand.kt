@@ -0,0 +1,22 @@
+package com.divyanshu.draw.widget
+
+import android.graphics.Bitmap
+import java.util.LinkedHashMap
+
+class ClearCommand(private val paths: LinkedHashMap<MyPath, PaintOptions>, private val background: Bitmap?) : Command {
+    private val size = paths.keys.fold(0L) { sum, path -> sum + History.estimateSize(path) } + (background?.byteCount ?: 0)
+
+    override fun undo(view: DrawView) {
+        view.setPaths(paths)
+        view.setBackground(background)
+    }
+
+    override fun redo(view: DrawView) {
+        view.setPaths(LinkedHashMap())
+        view.setBackground(null as Bitmap?)
+    }
+
+    override fun getSize(): Long {
+        return size
+    }
+}
@@ -0,0 +1,14 @@
+package com.divyanshu.draw.widget
+
+interface Command {
+    fun undo(view: DrawView)
+
+    fun redo(view: DrawView)
+
+    /**
+     * Approximate number of bytes kept alive by this command while it is in the history. The
+     * value must not change afterwards, as the history subtracts exactly what it added; the
+     * backing arrays of a stroke are trimmed when it is serialized.
+     */
+    fun getSize(): Long
+}
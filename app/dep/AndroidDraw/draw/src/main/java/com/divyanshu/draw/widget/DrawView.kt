@@ -4,17 +4,21 @@ import android.content.Context
 import android.graphics.*
 import android.support.annotation.ColorInt
 import android.support.v4.graphics.ColorUtils
+import android.os.Trace
 import android.util.AttributeSet
 import android.view.MotionEvent
 import android.view.ScaleGestureDetector
 import android.view.View
+import com.divyanshu.draw.core.SpatialIndex
+import com.divyanshu.draw.metrics.DrawMetrics
+import com.divyanshu.draw.metrics.Histogram
 import java.util.LinkedHashMap
 
 class DrawView(context: Context, attrs: AttributeSet) : View(context, attrs) {
     var mPaths = LinkedHashMap<MyPath, PaintOptions>()
+        private set
 
-    private var mLastPaths = LinkedHashMap<MyPath, PaintOptions>()
-    private var mUndonePaths = LinkedHashMap<MyPath, PaintOptions>()
+    private var mHistory = History()
 
     private var mPaint = Paint()
     private var mPath = MyPath()
@@ -22,6 +26,8 @@ class DrawView(context: Context, attrs: AttributeSet) : View(context, attrs) {
 
     private var mCurX = 0f
     private var mCurY = 0f
+    private var mLastMidX = 0f
+    private var mLastMidY = 0f
     private var mStartX = 0f
     private var mStartY = 0f
     private var mIsSaving = false
@@ -38,6 +44,50 @@ class DrawView(context: Context, attrs: AttributeSet) : View(context, attrs) {
 
     private var mBackground: Bitmap? = null
     private var mBackgroundRect = RectF()
+    // incremented on every change of the paths or the background
+    private var mContentVersion = 0
+
+    private var mPredictor = TouchPredictor()
+    private var mPredictedPath = Path()
+    private var mIsPredictionEnabled = false
+
+    private var mMetrics = DrawMetrics()
+    private var mDrawTime: Histogram? = null
+
+    private var mIndex = SpatialIndex<MyPath>()
+    private var mIndexDirty = true
+    private var mIndexBounds = RectF()
+    // drawing order of the indexed strokes; increasing, but with gaps where strokes were removed
+    private var mDrawOrder = HashMap<MyPath, Int>()
+    private var mNextDrawOrder = 0
+    private val mDrawOrderComparator = Comparator<MyPath> { a, b ->
+        (mDrawOrder[a] ?: 0).compareTo(mDrawOrder[b] ?: 0)
+    }
+
+    private var mIsTiledMode = false
+    private var mTileCache = TileCache(defaultTileCacheSize())
+    private var mTileRect = RectF()
+    private var mTilePaint = Paint(Paint.FILTER_BITMAP_FLAG)
+    private var mTileCandidates = HashSet<MyPath>()
+    private var mTilePaths = ArrayList<MyPath>()
+
+    private var mIsEraserEnabled = false
+    private var mIsErasing = false
+    private var mEraserRadius = ERASER_RADIUS * resources.displayMetrics.density
+    private var mEraserPaint = Paint()
+    private var mEraseX = 0f
+    private var mEraseY = 0f
+    private var mEraseArea = RectF()
+    private var mEraseCandidates = HashSet<MyPath>()
+    private var mErasedPaths = ArrayList<MyPath>()
+    private var mErasedOptions = ArrayList<PaintOptions>()
+    private var mErasedPositions = ArrayList<Int>()
+    // drawing order at the start of the erase gesture, filled when the gesture first hits a stroke
+    private var mGesturePositions = HashMap<MyPath, Int>()
+
+    private var mClipBounds = Rect()
+    private var mViewport = RectF()
+    private var mPathBounds = RectF()
 
     init {
         mPaint.apply {
@@ -49,13 +99,22 @@ class DrawView(context: Context, attrs: AttributeSet) : View(context, attrs) {
             isAntiAlias = true
         }
 
+        mEraserPaint.apply {
+            color = Color.GRAY
+            style = Paint.Style.STROKE
+            isAntiAlias = true
+        }
+
         mScaleGestureDetector = ScaleGestureDetector(context,
                 object : ScaleGestureDetector.SimpleOnScaleGestureListener() {
 
                     override fun onScale(detector: ScaleGestureDetector): Boolean {
                         val oldScale = mScale
                         mScale *= detector.scaleFactor
-                        mScale = Math.min(Math.max(mScale, 0.5f), 3.0f)
+                        if (mIsTiledMode)
+                            mScale = Math.min(Math.max(mScale, MIN_TILED_SCALE), MAX_TILED_SCALE)
+                        else
+                            mScale = Math.min(Math.max(mScale, 0.5f), 3.0f)
                         mScrollX += detector.focusX * (oldScale - mScale) / mScale
                         mScrollY += detector.focusY * (oldScale - mScale) / mScale
                         invalidate()
@@ -65,34 +124,21 @@ class DrawView(context: Context, attrs: AttributeSet) : View(context, attrs) {
     }
 
     fun undo() {
-        if (mPaths.isEmpty() && mLastPaths.isNotEmpty()) {
-            mPaths = mLastPaths.clone() as LinkedHashMap<MyPath, PaintOptions>
-            mLastPaths.clear()
+        if (mHistory.undo(this))
             invalidate()
-            return
-        }
-        if (mPaths.isEmpty()) {
-            return
-        }
-        val lastPath = mPaths.values.lastOrNull()
-        val lastKey = mPaths.keys.lastOrNull()
-
-        mPaths.remove(lastKey)
-        if (lastPath != null && lastKey != null) {
-            mUndonePaths[lastKey] = lastPath
-        }
-        invalidate()
     }
 
     fun redo() {
-        if (mUndonePaths.keys.isEmpty()) {
-            return
-        }
+        if (mHistory.redo(this))
+            invalidate()
+    }
 
-        val lastKey = mUndonePaths.keys.last()
-        addPath(lastKey, mUndonePaths.values.last())
-        mUndonePaths.remove(lastKey)
-        invalidate()
+    fun getHistoryMaxSize(): Long {
+        return mHistory.maxSize
+    }
+
+    fun setHistoryMaxSize(maxSize: Long) {
+        mHistory.maxSize = maxSize
     }
 
     fun setColor(newColor: Int) {
@@ -117,15 +163,81 @@ class DrawView(context: Context, attrs: AttributeSet) : View(context, attrs) {
         }
     }
 
+    /**
+     * Enables drawing an extrapolated tail ahead of the finger while a stroke is in progress.
+     * The tail is never part of the stored stroke.
+     */
+    fun setPredictionEnabled(enabled: Boolean) {
+        mIsPredictionEnabled = enabled
+        discardPrediction()
+    }
+
+    fun isPredictionEnabled(): Boolean {
+        return mIsPredictionEnabled
+    }
+
+    fun getPredictor(): TouchPredictor {
+        return mPredictor
+    }
+
+    fun getMetrics(): DrawMetrics {
+        return mMetrics
+    }
+
+    /**
+     * Records the duration of every [onDraw] in microseconds into the given histogram, unlike
+     * [getMetrics] regardless of whether the metrics are enabled.
+     */
+    fun setDrawTimeHistogram(histogram: Histogram?) {
+        mDrawTime = histogram
+    }
+
+    /**
+     * In tiled mode the canvas can be zoomed much further and finished strokes are drawn from
+     * cached raster tiles, which are rendered on demand and invalidated per stroke.
+     */
+    fun setTiledMode(enabled: Boolean) {
+        if (enabled == mIsTiledMode)
+            return
+        mIsTiledMode = enabled
+        mTileCache.clear()
+        if (!enabled)
+            mScale = Math.min(Math.max(mScale, 0.5f), 3.0f)
+        invalidate()
+    }
+
+    fun isTiledMode(): Boolean {
+        return mIsTiledMode
+    }
+
+    fun setTileCacheSize(maxBytes: Int) {
+        mTileCache = TileCache(maxBytes)
+        invalidate()
+    }
+
     fun getPaintBackground(): Bitmap? {
         return mBackground
     }
 
     fun setBackground(background: Bitmap?) {
         mBackground = background
+        mContentVersion++
         invalidate()
     }
 
+    fun changeBackground(background: Bitmap?) {
+        mHistory.push(BackgroundCommand(mBackground, background))
+        setBackground(background)
+    }
+
+    /**
+     * Returns a number that changes whenever the strokes or the background change, including
+     * undo and redo, so callers can tell whether content they derived from the view is stale.
+     */
+    fun getContentVersion(): Int {
+        return mContentVersion
+    }
+
     fun getBitmap(): Bitmap {
         val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
         val canvas = Canvas(bitmap)
@@ -137,13 +249,142 @@ class DrawView(context: Context, attrs: AttributeSet) : View(context, attrs) {
     }
 
     fun addPath(path: MyPath, options: PaintOptions) {
+        insertPath(path, options)
+    }
+
+    internal fun insertPath(path: MyPath, options: PaintOptions) {
         mPaths[path] = options
+        mContentVersion++
+        path.getBounds(mIndexBounds, options.strokeWidth / 2)
+        if (!mIndexDirty) {
+            mIndex.insert(path, mIndexBounds.left, mIndexBounds.top, mIndexBounds.right, mIndexBounds.bottom)
+            mDrawOrder[path] = mNextDrawOrder++
+        }
+        if (mIsTiledMode)
+            mTileCache.invalidate(mIndexBounds)
+    }
+
+    internal fun removePath(path: MyPath) {
+        val options = mPaths.remove(path) ?: return
+        mContentVersion++
+        path.getBounds(mIndexBounds, options.strokeWidth / 2)
+        if (!mIndexDirty) {
+            mIndex.remove(path, mIndexBounds.left, mIndexBounds.top, mIndexBounds.right, mIndexBounds.bottom)
+            mDrawOrder.remove(path)
+        }
+        if (mIsTiledMode)
+            mTileCache.invalidate(mIndexBounds)
+    }
+
+    internal fun setPaths(paths: LinkedHashMap<MyPath, PaintOptions>) {
+        mPaths = paths
+        mContentVersion++
+        mIndexDirty = true
+        mTileCache.clear()
+    }
+
+    internal fun replacePaths(paths: List<MyPath>, options: List<PaintOptions>) {
+        val map = LinkedHashMap<MyPath, PaintOptions>(paths.size * 4 / 3 + 1)
+        for (i in paths.indices)
+            map[paths[i]] = options[i]
+        setPaths(map)
+    }
+
+    /**
+     * The spatial index and the drawing order are rebuilt lazily after the whole path map was
+     * swapped, e.g. by clearing the canvas or undoing an erase.
+     */
+    private fun ensureIndex() {
+        if (!mIndexDirty)
+            return
+        mIndex.clear()
+        mDrawOrder.clear()
+        mNextDrawOrder = 0
+        for ((key, value) in mPaths) {
+            key.getBounds(mIndexBounds, value.strokeWidth / 2)
+            mIndex.insert(key, mIndexBounds.left, mIndexBounds.top, mIndexBounds.right, mIndexBounds.bottom)
+            mDrawOrder[key] = mNextDrawOrder++
+        }
+        mIndexDirty = false
+    }
+
+    /**
+     * In eraser mode touches remove every stroke the eraser passes over instead of drawing.
+     * All strokes removed by one gesture are undone together.
+     */
+    fun setEraserEnabled(enabled: Boolean) {
+        finishErase()
+        mIsEraserEnabled = enabled
+        invalidate()
+    }
+
+    fun isEraserEnabled(): Boolean {
+        return mIsEraserEnabled
+    }
+
+    private fun eraseTo(x: Float, y: Float) {
+        ensureIndex()
+        val radius = mEraserRadius / mScale
+        mEraseArea.set(Math.min(mEraseX, x) - radius, Math.min(mEraseY, y) - radius,
+                Math.max(mEraseX, x) + radius, Math.max(mEraseY, y) + radius)
+        mEraseCandidates.clear()
+        mIndex.query(mEraseArea.left, mEraseArea.top, mEraseArea.right, mEraseArea.bottom, mEraseCandidates)
+
+        for (path in mEraseCandidates) {
+            val options = mPaths[path] ?: continue
+            if (path.data.distanceTo(mEraseX, mEraseY, x, y) > radius + options.strokeWidth / 2)
+                continue
+            mErasedPositions.add(positionOf(path))
+            mErasedPaths.add(path)
+            mErasedOptions.add(options)
+            removePath(path)
+        }
+        mEraseCandidates.clear()
+        mEraseX = x
+        mEraseY = y
+    }
+
+    private fun positionOf(path: MyPath): Int {
+        if (mGesturePositions.isEmpty()) {
+            var i = 0
+            for (key in mPaths.keys)
+                mGesturePositions[key] = i++
+        }
+        return mGesturePositions[path] ?: -1
+    }
+
+    private fun finishErase() {
+        if (!mIsErasing)
+            return
+        mIsErasing = false
+        mGesturePositions.clear()
+        if (mErasedPaths.isEmpty())
+            return
+        mHistory.push(EraseCommand(ArrayList(mErasedPaths), ArrayList(mErasedOptions), ArrayList(mErasedPositions)))
+        mErasedPaths.clear()
+        mErasedOptions.clear()
+        mErasedPositions.clear()
     }
 
     override fun onDraw(canvas: Canvas) {
         super.onDraw(canvas)
+        Trace.beginSection("DrawView.onDraw")
+        val start = System.nanoTime()
+        try {
+            drawContent(canvas)
+        } finally {
+            mDrawTime?.record((System.nanoTime() - start) / 1000)
+            Trace.endSection()
+        }
+    }
+
+    private fun drawContent(canvas: Canvas) {
+        val metricsEnabled = mMetrics.isEnabled
+        if (metricsEnabled)
+            mMetrics.beginFrame()
 
-        mTransform.setTranslate(mScrollX + canvas.clipBounds.centerX(), mScrollY + canvas.clipBounds.centerY())
+        canvas.getClipBounds(mClipBounds)
+        mTransform.setTranslate(mScrollX + mClipBounds.centerX(), mScrollY + mClipBounds.centerY())
         mTransform.postScale(mScale, mScale)
 
         val bg = mBackground
@@ -153,7 +394,7 @@ class DrawView(context: Context, attrs: AttributeSet) : View(context, attrs) {
             mBackgroundRect.top = - bg.height.toFloat() / 2
             mBackgroundRect.bottom = bg.height.toFloat() / 2
             if (bg.height == 1 && bg.width == 1)
-                mBackgroundRect.set(canvas.clipBounds)
+                mBackgroundRect.set(mClipBounds)
             else
                 mTransform.mapRect(mBackgroundRect)
 
@@ -162,13 +403,123 @@ class DrawView(context: Context, attrs: AttributeSet) : View(context, attrs) {
         canvas.matrix = mTransform
         mTransform.invert(mTransform)
 
-        for ((key, value) in mPaths) {
-            changePaint(value)
-            canvas.drawPath(key, mPaint)
+        // only strokes inside the visible part of the world are materialized and drawn
+        mViewport.set(mClipBounds)
+        mTransform.mapRect(mViewport)
+
+        // tiles may still be missing, a saved bitmap has to contain every stroke
+        if (mIsTiledMode && !mIsSaving)
+            drawTiles(canvas)
+        else for ((key, value) in mPaths) {
+            key.getBounds(mPathBounds, value.strokeWidth / 2)
+            val visible = RectF.intersects(mViewport, mPathBounds)
+            if (visible) {
+                key.materialize()
+                changePaint(value)
+                canvas.drawPath(key, mPaint)
+            }
+            if (metricsEnabled)
+                mMetrics.countPath(key.getPointCount(), visible, key.isMaterialized())
         }
 
         changePaint(mPaintOptions)
         canvas.drawPath(mPath, mPaint)
+        if (!mPredictedPath.isEmpty)
+            canvas.drawPath(mPredictedPath, mPaint)
+        if (mIsErasing)
+            canvas.drawCircle(mEraseX, mEraseY, mEraserRadius / mScale, mEraserPaint)
+
+        if (metricsEnabled)
+            mMetrics.endFrame()
+    }
+
+    private fun drawTiles(canvas: Canvas) {
+        val level = TileCache.levelForScale(mScale)
+        val size = TileCache.tileWorldSize(level)
+        val left = Math.floor((mViewport.left / size).toDouble()).toInt()
+        val top = Math.floor((mViewport.top / size).toDouble()).toInt()
+        val right = Math.floor((mViewport.right / size).toDouble()).toInt()
+        val bottom = Math.floor((mViewport.bottom / size).toDouble()).toInt()
+
+        // rendering is spread over several frames so panning into empty areas stays smooth
+        var budget = MAX_TILES_PER_FRAME
+        var missing = false
+        for (y in top..bottom) {
+            for (x in left..right) {
+                TileCache.getTileRect(level, x, y, mTileRect)
+                var tile = mTileCache.get(level, x, y)
+                if (tile == null && budget > 0) {
+                    tile = renderTile(mTileRect)
+                    mTileCache.put(level, x, y, tile)
+                    budget--
+                }
+                if (tile == null)
+                    missing = true
+                else
+                    canvas.drawBitmap(tile, null, mTileRect, mTilePaint)
+            }
+        }
+        if (missing)
+            postInvalidateOnAnimation()
+    }
+
+    private fun renderTile(area: RectF): Bitmap {
+        val tile = Bitmap.createBitmap(TileCache.TILE_SIZE, TileCache.TILE_SIZE, Bitmap.Config.ARGB_8888)
+        val canvas = Canvas(tile)
+        val zoom = TileCache.TILE_SIZE / area.width()
+        canvas.scale(zoom, zoom)
+        canvas.translate(-area.left, -area.top)
+
+        ensureIndex()
+        mTileCandidates.clear()
+        mIndex.query(area.left, area.top, area.right, area.bottom, mTileCandidates)
+        if (mTileCandidates.isEmpty())
+            return tile
+        // the candidates are unordered, sorting them restores the drawing order
+        mTilePaths.addAll(mTileCandidates)
+        mTileCandidates.clear()
+        mTilePaths.sortWith(mDrawOrderComparator)
+        for (key in mTilePaths) {
+            val value = mPaths[key] ?: continue
+            key.getBounds(mPathBounds, value.strokeWidth / 2)
+            if (!RectF.intersects(area, mPathBounds))
+                continue
+            key.materialize()
+            changePaint(value)
+            canvas.drawPath(key, mPaint)
+        }
+        mTilePaths.clear()
+        return tile
+    }
+
+    private fun defaultTileCacheSize(): Int {
+        return Math.min(Runtime.getRuntime().maxMemory() / 8, MAX_TILE_CACHE_SIZE).toInt()
+    }
+
+    /**
+     * Frees the native geometry of strokes that lie more than a screen away from the last drawn
+     * viewport and halves the limit of the tile cache until the view is shown again. Meant to be
+     * called when the system reports memory pressure.
+     */
+    fun releaseOffscreenPaths() {
+        mTileCache.shrink()
+        // before the first frame there is no viewport to keep strokes around
+        if (mViewport.isEmpty)
+            return
+        val margin = RectF(mViewport)
+        margin.inset(-mViewport.width(), -mViewport.height())
+        for ((key, value) in mPaths) {
+            key.getBounds(mPathBounds, value.strokeWidth / 2)
+            if (!RectF.intersects(margin, mPathBounds))
+                key.release()
+        }
+    }
+
+    override fun onWindowVisibilityChanged(visibility: Int) {
+        super.onWindowVisibilityChanged(visibility)
+        // coming back to the foreground is the only sign that memory pressure has passed
+        if (visibility == View.VISIBLE)
+            mTileCache.restoreLimit()
     }
 
     private fun changePaint(paintOptions: PaintOptions) {
@@ -177,27 +528,51 @@ class DrawView(context: Context, attrs: AttributeSet) : View(context, attrs) {
     }
 
     fun clearCanvas() {
+        finishErase()
+        mHistory.push(ClearCommand(mPaths, mBackground))
         mBackground = null
-        mLastPaths = mPaths.clone() as LinkedHashMap<MyPath, PaintOptions>
         mPath.reset()
-        mPaths.clear()
+        setPaths(LinkedHashMap())
         invalidate()
     }
 
+    private fun updatePrediction(time: Long) {
+        mPredictedPath.rewind()
+        mPredictor.addSample(mCurX, mCurY, time)
+        mMetrics.predictionError = mPredictor.getMeanError()
+        if (!mPredictor.predict(time + TouchPredictor.FRAME_TIME))
+            return
+
+        // continue from the end of the confirmed stroke, which stops halfway to the last sample
+        mPredictedPath.moveTo(mLastMidX, mLastMidY)
+        mPredictedPath.lineTo(mCurX, mCurY)
+        mPredictedPath.lineTo(mPredictor.predictedX, mPredictor.predictedY)
+    }
+
+    private fun discardPrediction() {
+        mPredictedPath.rewind()
+        mPredictor.reset()
+    }
+
     private fun actionDown(x: Float, y: Float) {
         mPath.reset()
         mPath.moveTo(x, y)
         mCurX = x
         mCurY = y
+        mLastMidX = x
+        mLastMidY = y
     }
 
     private fun actionMove(x: Float, y: Float) {
-        mPath.quadTo(mCurX, mCurY, (x + mCurX) / 2, (y + mCurY) / 2)
+        mLastMidX = (x + mCurX) / 2
+        mLastMidY = (y + mCurY) / 2
+        mPath.quadTo(mCurX, mCurY, mLastMidX, mLastMidY)
         mCurX = x
         mCurY = y
     }
 
     private fun actionUp() {
+        discardPrediction()
         mPath.lineTo(mCurX, mCurY)
 
         // draw a dot on click
@@ -207,7 +582,8 @@ class DrawView(context: Context, attrs: AttributeSet) : View(context, attrs) {
             mPath.lineTo(mCurX + 1, mCurY)
         }
 
-        mPaths.put(mPath, mPaintOptions)
+        insertPath(mPath, mPaintOptions)
+        mHistory.push(AddPathCommand(mPath, mPaintOptions))
         mPath = MyPath()
         mPaintOptions = PaintOptions(mPaintOptions.color, mPaintOptions.strokeWidth, mPaintOptions.alpha)
     }
@@ -239,8 +615,10 @@ class DrawView(context: Context, attrs: AttributeSet) : View(context, attrs) {
         val shouldScroll = event.pointerCount > 1
         val center = getPointerCenter(event)
         if (shouldScroll != mIsScrolling) {
-            mUndonePaths.clear()
+            mHistory.clearRedo()
             mPath.reset()
+            discardPrediction()
+            finishErase()
             if (shouldScroll) {
                 mIsScrolling = true
                 mScrollOriginX = center.x
@@ -271,18 +649,52 @@ class DrawView(context: Context, attrs: AttributeSet) : View(context, attrs) {
         val x = points[0]
         val y = points[1]
 
+        if (mIsEraserEnabled) {
+            when (event.action) {
+                MotionEvent.ACTION_DOWN -> {
+                    mIsErasing = true
+                    mEraseX = x
+                    mEraseY = y
+                    eraseTo(x, y)
+                }
+                MotionEvent.ACTION_MOVE -> if (mIsErasing) eraseTo(x, y)
+                MotionEvent.ACTION_UP -> finishErase()
+            }
+            invalidate()
+            if (mMetrics.isEnabled)
+                mMetrics.recordInput(event.eventTime)
+            return true
+        }
+
         when (event.action) {
             MotionEvent.ACTION_DOWN -> {
                 mStartX = x
                 mStartY = y
                 actionDown(x, y)
-                mUndonePaths.clear()
+                mHistory.clearRedo()
+                if (mIsPredictionEnabled)
+                    updatePrediction(event.eventTime)
+            }
+            MotionEvent.ACTION_MOVE -> {
+                actionMove(x, y)
+                if (mIsPredictionEnabled)
+                    updatePrediction(event.eventTime)
             }
-            MotionEvent.ACTION_MOVE -> actionMove(x, y)
             MotionEvent.ACTION_UP -> actionUp()
         }
 
         invalidate()
+        if (mMetrics.isEnabled)
+            mMetrics.recordInput(event.eventTime)
         return true
     }
+
+    companion object {
+        private const val ERASER_RADIUS = 12f
+
+        private const val MIN_TILED_SCALE = 0.05f
+        private const val MAX_TILED_SCALE = 20f
+        private const val MAX_TILES_PER_FRAME = 4
+        private const val MAX_TILE_CACHE_SIZE = 48L * 1024 * 1024
+    }
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.divyanshu.draw.widget
+
+import java.util.ArrayList
+
+/**
+ * Strokes removed by one eraser gesture, together with their position in the drawing order
+ * before the gesture started.
+ */
+class EraseCommand(private val paths: List<MyPath>, private val options: List<PaintOptions>,
+                   private val positions: List<Int>) : Command {
+    private val size = paths.fold(0L) { sum, path -> sum + History.estimateSize(path) }
+
+    override fun undo(view: DrawView) {
+        val keys = ArrayList<MyPath>(view.mPaths.size + paths.size)
+        val values = ArrayList<PaintOptions>(view.mPaths.size + paths.size)
+        for ((key, value) in view.mPaths) {
+            keys.add(key)
+            values.add(value)
+        }
+        // inserting in ascending order puts every stroke back at its original position
+        for (i in paths.indices.sortedBy { positions[it] }) {
+            keys.add(positions[i], paths[i])
+            values.add(positions[i], options[i])
+        }
+        view.replacePaths(keys, values)
+    }
+
+    override fun redo(view: DrawView) {
+        for (path in paths)
+            view.removePath(path)
+    }
+
+    override fun getSize(): Long {
+        return size
+    }
+}
@@ -0,0 +1,88 @@
+package com.divyanshu.draw.widget
+
+import java.util.ArrayDeque
+
+/**
+ * Undo/redo stacks of [Command]s. Every operation is O(1) regardless of the number of strokes,
+ * and the oldest commands are dropped once the history holds more than [maxSize] bytes.
+ */
+class History(maxSize: Long = DEFAULT_MAX_SIZE) {
+    private val mUndoStack = ArrayDeque<Command>()
+    private val mRedoStack = ArrayDeque<Command>()
+    private var mSize = 0L
+
+    var maxSize = maxSize
+        set(value) {
+            field = value
+            trim()
+        }
+
+    fun canUndo(): Boolean {
+        return mUndoStack.isNotEmpty()
+    }
+
+    fun canRedo(): Boolean {
+        return mRedoStack.isNotEmpty()
+    }
+
+    /**
+     * Approximate number of bytes held by the undo and redo steps.
+     */
+    fun getSize(): Long {
+        return mSize
+    }
+
+    fun push(command: Command) {
+        clearRedo()
+        mUndoStack.addLast(command)
+        mSize += command.getSize()
+        trim()
+    }
+
+    fun undo(view: DrawView): Boolean {
+        val command = mUndoStack.pollLast() ?: return false
+        command.undo(view)
+        mRedoStack.addLast(command)
+        return true
+    }
+
+    fun redo(view: DrawView): Boolean {
+        val command = mRedoStack.pollLast() ?: return false
+        command.redo(view)
+        mUndoStack.addLast(command)
+        return true
+    }
+
+    fun clearRedo() {
+        for (command in mRedoStack)
+            mSize -= command.getSize()
+        mRedoStack.clear()
+    }
+
+    fun clear() {
+        mUndoStack.clear()
+        mRedoStack.clear()
+        mSize = 0
+    }
+
+    /**
+     * Drops the oldest undo steps first and the farthest redo steps last, always keeping
+     * the most recent command so a single large step can still be undone.
+     */
+    private fun trim() {
+        while (mSize > maxSize && mUndoStack.size + mRedoStack.size > 1) {
+            val dropped = if (mUndoStack.isNotEmpty()) mUndoStack.removeFirst() else mRedoStack.removeFirst()
+            mSize -= dropped.getSize()
+        }
+    }
+
+    companion object {
+        const val DEFAULT_MAX_SIZE = 32L * 1024 * 1024
+
+        private const val PATH_OVERHEAD = 64L
+
+        fun estimateSize(path: MyPath): Long {
+            return PATH_OVERHEAD + path.getFootprint()
+        }
+    }
+}
@@ -2,58 +2,152 @@ package com.divyanshu.draw.widget
 
 import android.graphics.Path
 import android.graphics.RectF
+import com.divyanshu.draw.core.PathCodec
+import com.divyanshu.draw.core.PathData
 import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.io.ObjectStreamField
 import java.io.Serializable
+import java.io.Writer
 import java.util.*
 
+/**
+ * A stroke that keeps its segments in [PathData]. Deserialized paths start out without native
+ * geometry; it is built by [materialize] when the path is first drawn and can be dropped again
+ * with [release] while the point data stays available.
+ */
 class MyPath : Path(), Serializable {
-    val actions = LinkedList<Action>()
+    private var mData = PathData()
+    private var mMaterialized = true
+
+    val data: PathData
+        get() = mData
 
     private fun readObject(inputStream: ObjectInputStream) {
-        inputStream.defaultReadObject()
+        val fields = inputStream.readFields()
+        mData = PathData()
+        mMaterialized = false
+
+        // sketches stored before the switch to primitive arrays carry a list of actions
+        @Suppress("UNCHECKED_CAST")
+        val actions = fields.get("actions", null) as List<Action>?
+        if (actions != null) {
+            actions.forEach {
+                it.perform(this)
+            }
+            return
+        }
+
+        PathCodec.read(mData, fields)
+    }
+
+    private fun writeObject(outputStream: ObjectOutputStream) {
+        val fields = outputStream.putFields()
+        PathCodec.write(mData, fields)
+        outputStream.writeFields()
+    }
 
-        val copiedActions = actions.map { it }
-        actions.clear()
-        copiedActions.forEach {
-            it.perform(this)
+    private fun replay() {
+        val ops = mData.ops
+        val coords = mData.coords
+        var c = 0
+        for (i in 0 until mData.opCount) {
+            when (ops[i]) {
+                PathData.OP_MOVE -> super.moveTo(coords[c], coords[c + 1])
+                PathData.OP_LINE -> super.lineTo(coords[c], coords[c + 1])
+                PathData.OP_QUAD -> super.quadTo(coords[c], coords[c + 1], coords[c + 2], coords[c + 3])
+            }
+            c += PathData.coordsPerOp(ops[i])
         }
     }
 
+    /**
+     * Builds the native path from the point data if it is not built yet. Must be called before
+     * the path is handed to a [android.graphics.Canvas].
+     */
+    fun materialize() {
+        if (mMaterialized)
+            return
+        super.rewind()
+        replay()
+        mMaterialized = true
+    }
+
+    /**
+     * Frees the native geometry; it is rebuilt by the next call to [materialize].
+     */
+    fun release() {
+        if (!mMaterialized)
+            return
+        super.reset()
+        mMaterialized = false
+    }
+
+    fun isMaterialized(): Boolean {
+        return mMaterialized
+    }
+
     override fun reset() {
-        actions.clear()
+        mData.clear()
         super.reset()
+        mMaterialized = true
     }
 
     override fun moveTo(x: Float, y: Float) {
-        actions.add(Move(x, y))
-        super.moveTo(x, y)
+        mData.moveTo(x, y)
+        if (mMaterialized)
+            super.moveTo(x, y)
     }
 
     override fun lineTo(x: Float, y: Float) {
-        actions.add(Line(x, y))
-        super.lineTo(x, y)
+        mData.lineTo(x, y)
+        if (mMaterialized)
+            super.lineTo(x, y)
     }
 
     override fun quadTo(x1: Float, y1: Float, x2: Float, y2: Float) {
-        actions.add(Quad(x1, y1, x2, y2))
-        super.quadTo(x1, y1, x2, y2)
-    }
-
-    fun getBounds(): RectF {
-        if (actions.size == 0)
-            return RectF()
-
-        val result = RectF(actions[0].getTargetX(), actions[0].getTargetY(), actions[0].getTargetX(), actions[0].getTargetY())
-        actions.forEach{ itr ->
-            if (result.left > itr.getTargetX())
-                result.left = itr.getTargetX()
-            if (result.right < itr.getTargetX())
-                result.right = itr.getTargetX()
-            if (result.top > itr.getTargetY())
-                result.top = itr.getTargetY()
-            if (result.bottom < itr.getTargetY())
-                result.bottom = itr.getTargetY()
+        mData.quadTo(x1, y1, x2, y2)
+        if (mMaterialized)
+            super.quadTo(x1, y1, x2, y2)
+    }
+
+    fun getPointCount(): Int {
+        return mData.opCount
+    }
+
+    fun getFootprint(): Long {
+        return mData.getFootprint()
+    }
+
+    fun writeSvg(writer: Writer) {
+        mData.writeSvg(writer)
+    }
+
+    fun writePdf(writer: Writer) {
+        mData.writePdf(writer)
+    }
+
+    /**
+     * Writes the bounds of the path, grown by [padding] on every side, into [bounds] in O(1).
+     * Quad control points are included, so the box always contains the whole curve.
+     */
+    @JvmOverloads
+    fun getBounds(bounds: RectF, padding: Float = 0f) {
+        if (mData.isEmpty()) {
+            bounds.setEmpty()
+            return
         }
-        return result
+        bounds.set(mData.left - padding, mData.top - padding, mData.right + padding, mData.bottom + padding)
+    }
+
+    companion object {
+        // pinned to the value computed for the original class so stored sketches stay readable
+        private const val serialVersionUID = 3113154067294578314L
+
+        // a private companion val is stored as the private static final field serialization expects
+        private val serialPersistentFields = arrayOf(
+                ObjectStreamField("actions", LinkedList::class.java),
+                ObjectStreamField(PathCodec.FIELD_OPS, ByteArray::class.java),
+                ObjectStreamField(PathCodec.FIELD_COORDS, FloatArray::class.java))
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,106 @@
+package com.divyanshu.draw.widget
+
+import android.graphics.Bitmap
+import android.graphics.RectF
+import android.util.LruCache
+
+/**
+ * LRU cache of rasterized canvas tiles, bounded by the byte size of the tile bitmaps.
+ * A tile is addressed by its zoom level and its column and row at that level; a tile of level
+ * `n` covers [TILE_SIZE] / 2^n world units on each side.
+ */
+class TileCache(private val maxBytes: Int) {
+    private val mTileRect = RectF()
+    // lowered under memory pressure, never above maxBytes
+    private var mLimit = maxBytes
+    private val mCache = object : LruCache<Long, Bitmap>(maxBytes) {
+        override fun sizeOf(key: Long, value: Bitmap): Int {
+            return value.byteCount
+        }
+    }
+
+    fun get(level: Int, x: Int, y: Int): Bitmap? {
+        return mCache.get(key(level, x, y))
+    }
+
+    fun put(level: Int, x: Int, y: Int, tile: Bitmap) {
+        mCache.put(key(level, x, y), tile)
+        if (mCache.size() > mLimit)
+            mCache.trimToSize(mLimit)
+    }
+
+    /**
+     * Drops every cached tile that overlaps the given world rectangle.
+     */
+    fun invalidate(bounds: RectF) {
+        for (key in mCache.snapshot().keys) {
+            getTileRect(levelOf(key), tileX(key), tileY(key), mTileRect)
+            if (RectF.intersects(mTileRect, bounds))
+                mCache.remove(key)
+        }
+    }
+
+    fun clear() {
+        mCache.evictAll()
+    }
+
+    /**
+     * Halves the number of bytes the cache may hold, down to a single tile, and evicts tiles
+     * beyond it. The lower limit stays in place until [restoreLimit] is called.
+     */
+    fun shrink() {
+        mLimit = Math.max(mLimit / 2, TILE_BYTES)
+        mCache.trimToSize(mLimit)
+    }
+
+    fun restoreLimit() {
+        mLimit = maxBytes
+    }
+
+    fun size(): Int {
+        return mCache.size()
+    }
+
+    companion object {
+        const val TILE_SIZE = 256
+        private const val TILE_BYTES = TILE_SIZE * TILE_SIZE * 4
+
+        private const val COORD_BITS = 28
+        private const val COORD_MASK = (1L shl COORD_BITS) - 1
+
+        fun levelForScale(scale: Float): Int {
+            return Math.round(Math.log(scale.toDouble()) / Math.log(2.0)).toInt()
+        }
+
+        fun tileWorldSize(level: Int): Float {
+            return (TILE_SIZE / Math.pow(2.0, level.toDouble())).toFloat()
+        }
+
+        fun getTileRect(level: Int, x: Int, y: Int, result: RectF) {
+            val size = tileWorldSize(level)
+            result.set(x * size, y * size, (x + 1) * size, (y + 1) * size)
+        }
+
+        private fun key(level: Int, x: Int, y: Int): Long {
+            return ((level + 128).toLong() shl (2 * COORD_BITS)) or
+                    ((x.toLong() and COORD_MASK) shl COORD_BITS) or
+                    (y.toLong() and COORD_MASK)
+        }
+
+        private fun levelOf(key: Long): Int {
+            return (key ushr (2 * COORD_BITS)).toInt() - 128
+        }
+
+        private fun tileX(key: Long): Int {
+            return signExtend((key ushr COORD_BITS) and COORD_MASK)
+        }
+
+        private fun tileY(key: Long): Int {
+            return signExtend(key and COORD_MASK)
+        }
+
+        private fun signExtend(value: Long): Int {
+            return ((value shl (64 - COORD_BITS)) shr (64 - COORD_BITS)).toInt()
+        }
+    }
+}
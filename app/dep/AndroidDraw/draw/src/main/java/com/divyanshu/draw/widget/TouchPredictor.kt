@@ -0,0 +1,109 @@
+package com.divyanshu.draw.widget
+
+/**
+ * Extrapolates the next touch position from the velocity and acceleration of the last three
+ * samples. Each new sample is compared with what the previous samples predicted for its time,
+ * which gives the prediction error.
+ */
+class TouchPredictor {
+    private val mX = FloatArray(3)
+    private val mY = FloatArray(3)
+    private val mTime = LongArray(3)
+    private var mCount = 0
+
+    /** The position computed by the last successful [predict]. */
+    var predictedX = 0f
+        private set
+    var predictedY = 0f
+        private set
+
+    var errorCount = 0
+        private set
+    var errorSum = 0.0
+        private set
+    var maxError = 0f
+        private set
+    var lastError = 0f
+        private set
+
+    fun reset() {
+        mCount = 0
+    }
+
+    fun addSample(x: Float, y: Float, time: Long) {
+        if (mCount > 0 && time <= mTime[mCount - 1])
+            return
+
+        if (mCount >= 2 && predict(time)) {
+            lastError = Math.hypot((predictedX - x).toDouble(), (predictedY - y).toDouble()).toFloat()
+            errorSum += lastError
+            errorCount++
+            if (lastError > maxError)
+                maxError = lastError
+        }
+
+        if (mCount == 3) {
+            shift()
+            mCount--
+        }
+        mX[mCount] = x
+        mY[mCount] = y
+        mTime[mCount] = time
+        mCount++
+    }
+
+    /**
+     * Computes the expected position at [time] into [predictedX] and [predictedY]. Returns false
+     * if there are not enough samples yet.
+     */
+    fun predict(time: Long): Boolean {
+        if (mCount < 2)
+            return false
+
+        val last = mCount - 1
+        val dt = (mTime[last] - mTime[last - 1]).toFloat()
+        val vx = (mX[last] - mX[last - 1]) / dt
+        val vy = (mY[last] - mY[last - 1]) / dt
+        var ax = 0f
+        var ay = 0f
+        if (mCount == 3) {
+            val dtPrev = (mTime[1] - mTime[0]).toFloat()
+            ax = (vx - (mX[1] - mX[0]) / dtPrev) / ((dt + dtPrev) / 2)
+            ay = (vy - (mY[1] - mY[0]) / dtPrev) / ((dt + dtPrev) / 2)
+        }
+
+        val h = Math.min(time - mTime[last], MAX_HORIZON).toFloat()
+        var dx = vx * h + ax * h * h / 2
+        var dy = vy * h + ay * h * h / 2
+
+        // acceleration may shorten the prediction but never make it longer than moving on at
+        // the current velocity |v·h| for the same horizon
+        val maxDistance = Math.hypot((vx * h).toDouble(), (vy * h).toDouble()).toFloat()
+        val distance = Math.hypot(dx.toDouble(), dy.toDouble()).toFloat()
+        if (distance > maxDistance && distance > 0) {
+            dx *= maxDistance / distance
+            dy *= maxDistance / distance
+        }
+
+        predictedX = mX[last] + dx
+        predictedY = mY[last] + dy
+        return true
+    }
+
+    fun getMeanError(): Float {
+        return if (errorCount > 0) (errorSum / errorCount).toFloat() else 0f
+    }
+
+    private fun shift() {
+        for (i in 1 until mCount) {
+            mX[i - 1] = mX[i]
+            mY[i - 1] = mY[i]
+            mTime[i - 1] = mTime[i]
+        }
+    }
+
+    companion object {
+        const val FRAME_TIME = 16L
+        private const val MAX_HORIZON = 4 * FRAME_TIME
+    }
+}
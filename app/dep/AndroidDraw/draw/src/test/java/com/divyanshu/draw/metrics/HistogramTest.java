@@ -0,0 +1,70 @@
+package com.divyanshu.draw.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void empty_reportsZero() {
+        Histogram histogram = new Histogram("empty");
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getMean(), 0.0);
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50.0));
+    }
+
+    @Test
+    public void record_tracksCountMeanAndMax() {
+        Histogram histogram = new Histogram("values");
+        for (long i = 1; i <= 100; i++)
+            histogram.record(i);
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+        assertEquals(100, histogram.getMax());
+    }
+
+    @Test
+    public void getPercentile_returnsBucketBoundAtOrAboveValue() {
+        Histogram histogram = new Histogram("values");
+        for (long i = 1; i <= 100; i++)
+            histogram.record(i);
+        long median = histogram.getPercentile(50.0);
+        // buckets grow by 20 %, so the bound is at most that far above the exact value
+        assertTrue(median >= 50);
+        assertTrue(median <= 60);
+        assertEquals(100, histogram.getPercentile(100.0));
+    }
+
+    @Test
+    public void getPercentile_isCappedAtMax() {
+        Histogram histogram = new Histogram("small");
+        histogram.record(5);
+        assertEquals(5, histogram.getPercentile(50.0));
+
+        Histogram huge = new Histogram("huge");
+        huge.record(Long.MAX_VALUE / 2);
+        assertEquals(Long.MAX_VALUE / 2, huge.getPercentile(99.0));
+    }
+
+    @Test
+    public void reset_clearsAllValues() {
+        Histogram histogram = new Histogram("values");
+        histogram.record(42);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50.0));
+    }
+
+    @Test
+    public void toCsv_matchesHeader() {
+        Histogram histogram = new Histogram("draw");
+        histogram.record(10);
+        histogram.record(20);
+        assertEquals("draw,2,15.0,10,20,20,20", histogram.toCsv());
+        assertEquals(Histogram.CSV_HEADER.split(",").length, histogram.toCsv().split(",").length);
+    }
+}
@@ -0,0 +1,124 @@
+package com.divyanshu.draw.widget;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryTest {
+    private static class SizedCommand implements Command {
+        private final long size;
+
+        SizedCommand(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public void undo(DrawView view) {
+        }
+
+        @Override
+        public void redo(DrawView view) {
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+    }
+
+    private static MyPath stroke(int points) {
+        MyPath path = new MyPath();
+        path.moveTo(0, 0);
+        for (int i = 1; i < points; i++)
+            path.lineTo(i, i);
+        return path;
+    }
+
+    private static void serialize(MyPath path) throws IOException {
+        ObjectOutputStream out = new ObjectOutputStream(new ByteArrayOutputStream());
+        out.writeObject(path);
+        out.close();
+    }
+
+    @Test
+    public void push_enablesUndo() {
+        History history = new History();
+        assertFalse(history.canUndo());
+        assertFalse(history.canRedo());
+
+        history.push(new SizedCommand(10));
+        assertTrue(history.canUndo());
+        assertFalse(history.canRedo());
+        assertEquals(10, history.getSize());
+    }
+
+    @Test
+    public void push_dropsOldestStepsBeyondMaxSize() {
+        History history = new History(25);
+        history.push(new SizedCommand(10));
+        history.push(new SizedCommand(10));
+        assertEquals(20, history.getSize());
+
+        history.push(new SizedCommand(10));
+        assertEquals(20, history.getSize());
+    }
+
+    @Test
+    public void push_keepsSingleOversizedStep() {
+        History history = new History(25);
+        history.push(new SizedCommand(10));
+        history.push(new SizedCommand(100));
+        assertTrue(history.canUndo());
+        assertEquals(100, history.getSize());
+    }
+
+    @Test
+    public void setMaxSize_trimsImmediately() {
+        History history = new History();
+        for (int i = 0; i < 10; i++)
+            history.push(new SizedCommand(10));
+        assertEquals(100, history.getSize());
+
+        history.setMaxSize(35);
+        assertEquals(30, history.getSize());
+        history.setMaxSize(0);
+        assertEquals(10, history.getSize());
+        assertTrue(history.canUndo());
+    }
+
+    @Test
+    public void clear_releasesEverything() {
+        History history = new History();
+        history.push(new SizedCommand(10));
+        history.push(new SizedCommand(10));
+        history.clear();
+        assertFalse(history.canUndo());
+        assertFalse(history.canRedo());
+        assertEquals(0, history.getSize());
+    }
+
+    @Test
+    public void size_unaffectedBySerializingStrokes() throws IOException {
+        MyPath firstPath = stroke(100);
+        AddPathCommand first = new AddPathCommand(firstPath, new PaintOptions());
+        AddPathCommand second = new AddPathCommand(stroke(100), new PaintOptions());
+        History history = new History();
+        history.push(first);
+
+        // saving a sketch trims the arrays of the stroke the history already accounted for
+        long footprint = firstPath.getFootprint();
+        serialize(firstPath);
+        assertTrue(firstPath.getFootprint() < footprint);
+
+        history.push(second);
+        assertEquals(first.getSize() + second.getSize(), history.getSize());
+        history.setMaxSize(second.getSize());
+        assertEquals(second.getSize(), history.getSize());
+    }
+}
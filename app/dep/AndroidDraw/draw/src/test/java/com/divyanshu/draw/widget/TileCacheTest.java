@@ -0,0 +1,35 @@
+package com.divyanshu.draw.widget;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TileCacheTest {
+    @Test
+    public void levelForScale_roundsToNearestPowerOfTwo() {
+        assertEquals(0, TileCache.Companion.levelForScale(1f));
+        assertEquals(0, TileCache.Companion.levelForScale(1.4f));
+        assertEquals(1, TileCache.Companion.levelForScale(1.5f));
+        assertEquals(1, TileCache.Companion.levelForScale(2f));
+        assertEquals(3, TileCache.Companion.levelForScale(8f));
+        assertEquals(-1, TileCache.Companion.levelForScale(0.5f));
+        assertEquals(-2, TileCache.Companion.levelForScale(0.3f));
+    }
+
+    @Test
+    public void tileWorldSize_halvesPerLevel() {
+        assertEquals(TileCache.TILE_SIZE, TileCache.Companion.tileWorldSize(0), 0f);
+        assertEquals(TileCache.TILE_SIZE / 2f, TileCache.Companion.tileWorldSize(1), 0f);
+        assertEquals(TileCache.TILE_SIZE / 8f, TileCache.Companion.tileWorldSize(3), 0f);
+        assertEquals(TileCache.TILE_SIZE * 4f, TileCache.Companion.tileWorldSize(-2), 0f);
+    }
+
+    @Test
+    public void tileWorldSize_coversSameScreenSizeAtItsScale() {
+        for (int level = -4; level <= 4; level++) {
+            float scale = (float) Math.pow(2, level);
+            assertEquals(level, TileCache.Companion.levelForScale(scale));
+            assertEquals(TileCache.TILE_SIZE, TileCache.Companion.tileWorldSize(level) * scale, 1e-3f);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.divyanshu.draw.widget;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TouchPredictorTest {
+    private static final float DELTA = 1e-3f;
+
+    @Test
+    public void predict_needsTwoSamples() {
+        TouchPredictor predictor = new TouchPredictor();
+        assertFalse(predictor.predict(16));
+        predictor.addSample(0, 0, 0);
+        assertFalse(predictor.predict(16));
+        predictor.addSample(10, 0, 16);
+        assertTrue(predictor.predict(32));
+    }
+
+    @Test
+    public void predict_continuesConstantVelocity() {
+        TouchPredictor predictor = new TouchPredictor();
+        predictor.addSample(0, 0, 0);
+        predictor.addSample(10, 5, 16);
+        predictor.addSample(20, 10, 32);
+        assertTrue(predictor.predict(48));
+        assertEquals(30, predictor.getPredictedX(), DELTA);
+        assertEquals(15, predictor.getPredictedY(), DELTA);
+    }
+
+    @Test
+    public void predict_limitsHorizon() {
+        TouchPredictor predictor = new TouchPredictor();
+        predictor.addSample(0, 0, 0);
+        predictor.addSample(16, 0, 16);
+        assertTrue(predictor.predict(16 + 1000));
+        assertEquals(16 + 4 * TouchPredictor.FRAME_TIME, predictor.getPredictedX(), DELTA);
+    }
+
+    @Test
+    public void predict_decelerationShortensPrediction() {
+        TouchPredictor predictor = new TouchPredictor();
+        predictor.addSample(0, 0, 0);
+        predictor.addSample(20, 0, 16);
+        predictor.addSample(30, 0, 32);
+        assertTrue(predictor.predict(48));
+        assertTrue(predictor.getPredictedX() > 30);
+        assertTrue(predictor.getPredictedX() < 40);
+    }
+
+    @Test
+    public void predict_accelerationNeverLengthensPrediction() {
+        TouchPredictor predictor = new TouchPredictor();
+        predictor.addSample(0, 0, 0);
+        predictor.addSample(10, 0, 16);
+        predictor.addSample(30, 0, 32);
+        assertTrue(predictor.predict(48));
+        assertEquals(50, predictor.getPredictedX(), DELTA);
+        assertEquals(0, predictor.getPredictedY(), DELTA);
+    }
+
+    @Test
+    public void addSample_measuresPredictionError() {
+        TouchPredictor predictor = new TouchPredictor();
+        predictor.addSample(0, 0, 0);
+        predictor.addSample(10, 0, 16);
+        predictor.addSample(20, 0, 32);
+        assertEquals(0, predictor.getLastError(), DELTA);
+        predictor.addSample(30, 4, 48);
+        assertEquals(4, predictor.getLastError(), DELTA);
+        assertEquals(2, predictor.getErrorCount());
+        assertEquals(2, predictor.getMeanError(), DELTA);
+        assertEquals(4, predictor.getMaxError(), DELTA);
+    }
+
+    @Test
+    public void addSample_ignoresOutOfOrderSamples() {
+        TouchPredictor predictor = new TouchPredictor();
+        predictor.addSample(0, 0, 0);
+        predictor.addSample(10, 0, 16);
+        predictor.addSample(100, 100, 16);
+        assertTrue(predictor.predict(32));
+        assertEquals(20, predictor.getPredictedX(), DELTA);
+        assertEquals(0, predictor.getPredictedY(), DELTA);
+    }
+
+    @Test
+    public void reset_discardsSamples() {
+        TouchPredictor predictor = new TouchPredictor();
+        predictor.addSample(0, 0, 0);
+        predictor.addSample(10, 0, 16);
+        predictor.reset();
+        assertFalse(predictor.predict(32));
+    }
+}
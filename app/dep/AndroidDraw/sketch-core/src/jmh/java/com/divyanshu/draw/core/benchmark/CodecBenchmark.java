@@ -0,0 +1,131 @@
+package com.divyanshu.draw.core.benchmark;
+
+import com.divyanshu.draw.core.PathCodec;
+import com.divyanshu.draw.core.PathData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the codecs of a whole sketch: Java serialization in the stored format of MyPath and
+ * the SVG and PDF path writers used by the exporters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CodecBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int points;
+
+    private Stroke[] mStrokes;
+    private byte[] mSerialized;
+    private ByteArrayOutputStream mBuffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<PathData> sketch = SyntheticSketch.create(points, 42);
+        mStrokes = new Stroke[sketch.size()];
+        for (int i = 0; i < mStrokes.length; i++)
+            mStrokes[i] = new Stroke(sketch.get(i));
+        mBuffer = new ByteArrayOutputStream(points * 16);
+        mSerialized = serialize();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        mBuffer.reset();
+        ObjectOutputStream out = new ObjectOutputStream(mBuffer);
+        out.writeObject(mStrokes);
+        out.close();
+        return mBuffer.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(mSerialized));
+        Object strokes = in.readObject();
+        in.close();
+        return strokes;
+    }
+
+    @Benchmark
+    public long writeSvg() throws IOException {
+        CountingWriter writer = new CountingWriter();
+        for (Stroke stroke : mStrokes)
+            stroke.data.writeSvg(writer);
+        return writer.count;
+    }
+
+    @Benchmark
+    public long writePdf() throws IOException {
+        CountingWriter writer = new CountingWriter();
+        for (Stroke stroke : mStrokes)
+            stroke.data.writePdf(writer);
+        return writer.count;
+    }
+
+    /**
+     * Serialized like MyPath, which cannot be used here because it extends android.graphics.Path.
+     */
+    static class Stroke implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private static final ObjectStreamField[] serialPersistentFields = {
+                new ObjectStreamField(PathCodec.FIELD_OPS, byte[].class),
+                new ObjectStreamField(PathCodec.FIELD_COORDS, float[].class)
+        };
+
+        transient PathData data;
+
+        Stroke(PathData data) {
+            this.data = data;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            ObjectOutputStream.PutField fields = out.putFields();
+            PathCodec.write(data, fields);
+            out.writeFields();
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            data = new PathData();
+            PathCodec.read(data, in.readFields());
+        }
+    }
+
+    /**
+     * Discards the output, so only the formatting is measured.
+     */
+    private static class CountingWriter extends Writer {
+        long count;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.divyanshu.draw.core.benchmark;
+
+import com.divyanshu.draw.core.PathData;
+import com.divyanshu.draw.core.SpatialIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the geometry of a whole sketch: computing the bounds of loaded strokes, simplifying
+ * them and hit-testing eraser gestures through the spatial index as DrawView does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GeometryBenchmark {
+    private static final int ERASER_MOVES = 256;
+    private static final float ERASER_RADIUS = 20f;
+    private static final float STROKE_WIDTH = 8f;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int points;
+
+    @Param({"1.0"})
+    public float tolerance;
+
+    private List<PathData> mSketch;
+    private SpatialIndex<PathData> mIndex;
+    private float[] mEraser;
+    private Set<PathData> mCandidates;
+
+    @Setup
+    public void setUp() {
+        mSketch = SyntheticSketch.create(points, 42);
+        mIndex = new SpatialIndex<>(SpatialIndex.DEFAULT_CELL_SIZE);
+        float inset = STROKE_WIDTH / 2;
+        for (PathData data : mSketch)
+            mIndex.insert(data, data.getLeft() - inset, data.getTop() - inset,
+                    data.getRight() + inset, data.getBottom() + inset);
+
+        Random random = new Random(7);
+        mEraser = new float[ERASER_MOVES * 4];
+        for (int i = 0; i < mEraser.length; i += 4) {
+            mEraser[i] = random.nextFloat() * SyntheticSketch.SIZE;
+            mEraser[i + 1] = random.nextFloat() * SyntheticSketch.SIZE;
+            mEraser[i + 2] = mEraser[i] + random.nextFloat() * 40 - 20;
+            mEraser[i + 3] = mEraser[i + 1] + random.nextFloat() * 40 - 20;
+        }
+        mCandidates = new HashSet<>();
+    }
+
+    /**
+     * Recomputes the bounds of every stroke the way loading a stored sketch does.
+     */
+    @Benchmark
+    public float bounds() {
+        float area = 0;
+        for (PathData data : mSketch) {
+            data.set(data.getOps(), data.getCoords());
+            area += (data.getRight() - data.getLeft()) * (data.getBottom() - data.getTop());
+        }
+        return area;
+    }
+
+    @Benchmark
+    public int simplify() {
+        int ops = 0;
+        for (PathData data : mSketch)
+            ops += data.simplify(tolerance).getOpCount();
+        return ops;
+    }
+
+    @Benchmark
+    public int hitTest() {
+        int hits = 0;
+        for (int i = 0; i < mEraser.length; i += 4) {
+            float ax = mEraser[i];
+            float ay = mEraser[i + 1];
+            float bx = mEraser[i + 2];
+            float by = mEraser[i + 3];
+            mCandidates.clear();
+            mIndex.query(Math.min(ax, bx) - ERASER_RADIUS, Math.min(ay, by) - ERASER_RADIUS,
+                    Math.max(ax, bx) + ERASER_RADIUS, Math.max(ay, by) + ERASER_RADIUS, mCandidates);
+            for (PathData data : mCandidates) {
+                if (data.distanceTo(ax, ay, bx, by) <= ERASER_RADIUS + STROKE_WIDTH / 2)
+                    hits++;
+            }
+        }
+        return hits;
+    }
+}
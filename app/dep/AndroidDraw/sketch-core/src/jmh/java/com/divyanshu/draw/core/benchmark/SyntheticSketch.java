@@ -0,0 +1,56 @@
+package com.divyanshu.draw.core.benchmark;
+
+import com.divyanshu.draw.core.PathData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates reproducible sketches that look like the ones drawn in DrawView: strokes of a move,
+ * a quad through the midpoint of every pair of touch samples and a closing line. The samples
+ * follow a smooth random walk, so long parts of a stroke are nearly straight.
+ */
+final class SyntheticSketch {
+    static final float SIZE = 4096f;
+    static final int POINTS_PER_STROKE = 200;
+
+    private SyntheticSketch() {
+    }
+
+    static List<PathData> create(int points, long seed) {
+        Random random = new Random(seed);
+        List<PathData> strokes = new ArrayList<>(points / POINTS_PER_STROKE + 1);
+        int remaining = points;
+        while (remaining > 0) {
+            int count = Math.min(remaining, POINTS_PER_STROKE);
+            strokes.add(createStroke(random, count));
+            remaining -= count;
+        }
+        return strokes;
+    }
+
+    private static PathData createStroke(Random random, int points) {
+        PathData data = new PathData();
+        float x = random.nextFloat() * SIZE;
+        float y = random.nextFloat() * SIZE;
+        double angle = random.nextDouble() * Math.PI * 2;
+        data.moveTo(x, y);
+
+        for (int i = 2; i < points; i++) {
+            angle += random.nextGaussian() * 0.15;
+            float nextX = clamp(x + (float) Math.cos(angle) * 6);
+            float nextY = clamp(y + (float) Math.sin(angle) * 6);
+            data.quadTo(x, y, (x + nextX) / 2, (y + nextY) / 2);
+            x = nextX;
+            y = nextY;
+        }
+        data.lineTo(x, y);
+        data.trimToSize();
+        return data;
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0f, Math.min(SIZE, value));
+    }
+}
@@ -0,0 +1,34 @@
+package com.divyanshu.draw.core
+
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+
+/**
+ * Stores [PathData] as the serialized fields of a stroke: the opcodes and the coordinates as two
+ * primitive arrays, which Java serialization writes as single blocks.
+ */
+object PathCodec {
+    const val FIELD_OPS = "ops"
+    const val FIELD_COORDS = "coords"
+
+    @JvmStatic
+    fun write(data: PathData, fields: ObjectOutputStream.PutField) {
+        data.trimToSize()
+        fields.put(FIELD_OPS, data.ops)
+        fields.put(FIELD_COORDS, data.coords)
+    }
+
+    /**
+     * Replaces the content of [data] with the stored fields. Returns false if the stream holds
+     * no point data, e.g. because it was written in an older format.
+     */
+    @JvmStatic
+    fun read(data: PathData, fields: ObjectInputStream.GetField): Boolean {
+        val ops = fields.get(FIELD_OPS, null) as ByteArray?
+        val coords = fields.get(FIELD_COORDS, null) as FloatArray?
+        if (ops == null || coords == null)
+            return false
+        data.set(ops, coords)
+        return true
+    }
+}
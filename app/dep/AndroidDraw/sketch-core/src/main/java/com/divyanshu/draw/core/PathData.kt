@@ -0,0 +1,443 @@
+package com.divyanshu.draw.core
+
+import java.io.Writer
+
+/**
+ * Structure-of-arrays storage for the segments of a stroke: one opcode byte per segment plus
+ * its coordinates in a shared float array (2 floats for moves and lines, 4 for quads).
+ */
+class PathData {
+    var ops = ByteArray(INITIAL_CAPACITY)
+        private set
+    var coords = FloatArray(INITIAL_CAPACITY * 2)
+        private set
+    var opCount = 0
+        private set
+    var coordCount = 0
+        private set
+
+    // bounds of all coordinates including quad control points, which contain the whole curve
+    var left = 0f
+        private set
+    var top = 0f
+        private set
+    var right = 0f
+        private set
+    var bottom = 0f
+        private set
+
+    fun moveTo(x: Float, y: Float) {
+        append(OP_MOVE, x, y)
+    }
+
+    fun lineTo(x: Float, y: Float) {
+        append(OP_LINE, x, y)
+    }
+
+    fun quadTo(x1: Float, y1: Float, x2: Float, y2: Float) {
+        ensureCapacity(1, 4)
+        include(x1, y1)
+        include(x2, y2, false)
+        ops[opCount++] = OP_QUAD
+        coords[coordCount++] = x1
+        coords[coordCount++] = y1
+        coords[coordCount++] = x2
+        coords[coordCount++] = y2
+    }
+
+    fun clear() {
+        opCount = 0
+        coordCount = 0
+    }
+
+    fun isEmpty(): Boolean {
+        return opCount == 0
+    }
+
+    /**
+     * Replaces the content with the given arrays, which are taken over without copying.
+     */
+    fun set(ops: ByteArray, coords: FloatArray) {
+        this.ops = ops
+        this.coords = coords
+        opCount = ops.size
+        coordCount = coords.size
+
+        for (i in 0 until coordCount step 2)
+            include(coords[i], coords[i + 1], i == 0)
+    }
+
+    fun trimToSize() {
+        if (ops.size != opCount)
+            ops = ops.copyOf(opCount)
+        if (coords.size != coordCount)
+            coords = coords.copyOf(coordCount)
+    }
+
+    /**
+     * Bytes held by the backing arrays, including unused capacity.
+     */
+    fun getFootprint(): Long {
+        return ARRAY_OVERHEAD * 2L + ops.size + coords.size * 4L
+    }
+
+    /**
+     * Writes the segments as SVG path data. Each segment is formatted into one scratch buffer and
+     * written in a single call, so the cost is linear in the number of segments and no strings
+     * are allocated per point.
+     */
+    fun writeSvg(writer: Writer) {
+        val buffer = CharArray(SVG_SEGMENT_BUFFER_SIZE)
+        var c = 0
+        for (i in 0 until opCount) {
+            val op = ops[i]
+            var length = 0
+            buffer[length++] = when (op) {
+                OP_MOVE -> 'M'
+                OP_LINE -> 'L'
+                else -> 'Q'
+            }
+            length = formatSvgNumber(coords[c], buffer, length)
+            buffer[length++] = ','
+            length = formatSvgNumber(coords[c + 1], buffer, length)
+            if (op == OP_QUAD) {
+                buffer[length++] = ' '
+                length = formatSvgNumber(coords[c + 2], buffer, length)
+                buffer[length++] = ','
+                length = formatSvgNumber(coords[c + 3], buffer, length)
+            }
+            writer.write(buffer, 0, length)
+            c += coordsPerOp(op)
+        }
+    }
+
+    /**
+     * Writes the segments as PDF path construction operators, one segment per line. PDF has no
+     * quadratic curves, so quads are written as the equivalent cubic curves.
+     */
+    fun writePdf(writer: Writer) {
+        val buffer = CharArray(PDF_SEGMENT_BUFFER_SIZE)
+        var x = 0f
+        var y = 0f
+        var c = 0
+        for (i in 0 until opCount) {
+            val op = ops[i]
+            var length = 0
+            if (op == OP_QUAD) {
+                val cx = coords[c]
+                val cy = coords[c + 1]
+                val ex = coords[c + 2]
+                val ey = coords[c + 3]
+                length = formatSvgNumber(x + (cx - x) * 2 / 3, buffer, length)
+                buffer[length++] = ' '
+                length = formatSvgNumber(y + (cy - y) * 2 / 3, buffer, length)
+                buffer[length++] = ' '
+                length = formatSvgNumber(ex + (cx - ex) * 2 / 3, buffer, length)
+                buffer[length++] = ' '
+                length = formatSvgNumber(ey + (cy - ey) * 2 / 3, buffer, length)
+                buffer[length++] = ' '
+                length = formatSvgNumber(ex, buffer, length)
+                buffer[length++] = ' '
+                length = formatSvgNumber(ey, buffer, length)
+                buffer[length++] = ' '
+                buffer[length++] = 'c'
+                x = ex
+                y = ey
+            } else {
+                x = coords[c]
+                y = coords[c + 1]
+                length = formatSvgNumber(x, buffer, length)
+                buffer[length++] = ' '
+                length = formatSvgNumber(y, buffer, length)
+                buffer[length++] = ' '
+                buffer[length++] = if (op == OP_MOVE) 'm' else 'l'
+            }
+            buffer[length++] = '\n'
+            writer.write(buffer, 0, length)
+            c += coordsPerOp(op)
+        }
+    }
+
+    /**
+     * Returns the smallest distance between the segment from (ax, ay) to (bx, by) and the
+     * stroke centre line. Quads are flattened into [QUAD_STEPS] line segments.
+     */
+    fun distanceTo(ax: Float, ay: Float, bx: Float, by: Float): Float {
+        if (opCount == 0)
+            return Float.POSITIVE_INFINITY
+
+        var best = Float.POSITIVE_INFINITY
+        var curX = coords[0]
+        var curY = coords[1]
+        var c = 0
+        for (i in 0 until opCount) {
+            when (ops[i]) {
+                OP_MOVE -> {
+                    curX = coords[c]
+                    curY = coords[c + 1]
+                    best = Math.min(best, segmentDistanceSq(ax, ay, bx, by, curX, curY, curX, curY))
+                }
+                OP_LINE -> {
+                    best = Math.min(best, segmentDistanceSq(ax, ay, bx, by, curX, curY, coords[c], coords[c + 1]))
+                    curX = coords[c]
+                    curY = coords[c + 1]
+                }
+                OP_QUAD -> {
+                    val cx = coords[c]
+                    val cy = coords[c + 1]
+                    val ex = coords[c + 2]
+                    val ey = coords[c + 3]
+                    val sx = curX
+                    val sy = curY
+                    for (step in 1..QUAD_STEPS) {
+                        val t = step.toFloat() / QUAD_STEPS
+                        val u = 1 - t
+                        val x = u * u * sx + 2 * u * t * cx + t * t * ex
+                        val y = u * u * sy + 2 * u * t * cy + t * t * ey
+                        best = Math.min(best, segmentDistanceSq(ax, ay, bx, by, curX, curY, x, y))
+                        curX = x
+                        curY = y
+                    }
+                }
+            }
+            c += coordsPerOp(ops[i])
+        }
+        return Math.sqrt(best.toDouble()).toFloat()
+    }
+
+    /**
+     * Returns a copy with the points of straight runs reduced by Ramer-Douglas-Peucker, so that
+     * no dropped point is further than [tolerance] from the simplified run. Quads whose control
+     * point lies within the tolerance of their chord count as lines; other quads and moves are
+     * kept as they are and end a run.
+     */
+    fun simplify(tolerance: Float): PathData {
+        val result = PathData()
+        if (opCount == 0)
+            return result
+
+        // end point of every segment and whether it may be merged into a line
+        val endX = FloatArray(opCount)
+        val endY = FloatArray(opCount)
+        val flat = BooleanArray(opCount)
+        val keep = BooleanArray(opCount)
+        val toleranceSq = tolerance * tolerance
+        var c = 0
+        for (i in 0 until opCount) {
+            val op = ops[i]
+            endX[i] = coords[c + coordsPerOp(op) - 2]
+            endY[i] = coords[c + coordsPerOp(op) - 1]
+            flat[i] = when (op) {
+                OP_LINE -> i > 0
+                OP_QUAD -> i > 0 && pointDistanceSq(coords[c], coords[c + 1],
+                        endX[i - 1], endY[i - 1], endX[i], endY[i]) <= toleranceSq
+                else -> false
+            }
+            keep[i] = !flat[i]
+            c += coordsPerOp(op)
+        }
+
+        // a run starts at the segment before its first flat one and ends at its last flat one
+        val stack = IntArray(64)
+        var i = 1
+        while (i < opCount) {
+            if (!flat[i]) {
+                i++
+                continue
+            }
+            val first = i - 1
+            while (i < opCount && flat[i])
+                i++
+            keep[i - 1] = true
+            simplifyRun(first, i - 1, endX, endY, keep, toleranceSq, stack)
+        }
+
+        c = 0
+        for (j in 0 until opCount) {
+            val op = ops[j]
+            if (keep[j]) {
+                when {
+                    flat[j] || op == OP_LINE -> result.lineTo(endX[j], endY[j])
+                    op == OP_QUAD -> result.quadTo(coords[c], coords[c + 1], coords[c + 2], coords[c + 3])
+                    else -> result.moveTo(coords[c], coords[c + 1])
+                }
+            }
+            c += coordsPerOp(op)
+        }
+        result.trimToSize()
+        return result
+    }
+
+    private fun simplifyRun(first: Int, last: Int, endX: FloatArray, endY: FloatArray,
+                            keep: BooleanArray, toleranceSq: Float, initialStack: IntArray) {
+        // explicit stack of index pairs, runs can be far too long for recursion
+        var stack = initialStack
+        var size = 0
+        stack[size++] = first
+        stack[size++] = last
+        while (size > 0) {
+            val end = stack[--size]
+            val start = stack[--size]
+            var farthest = -1
+            var farthestSq = toleranceSq
+            for (k in start + 1 until end) {
+                val distanceSq = pointDistanceSq(endX[k], endY[k], endX[start], endY[start], endX[end], endY[end])
+                if (distanceSq > farthestSq) {
+                    farthest = k
+                    farthestSq = distanceSq
+                }
+            }
+            if (farthest < 0)
+                continue
+            keep[farthest] = true
+            if (size + 4 > stack.size)
+                stack = stack.copyOf(stack.size * 2)
+            stack[size++] = start
+            stack[size++] = farthest
+            stack[size++] = farthest
+            stack[size++] = end
+        }
+    }
+
+    private fun append(op: Byte, x: Float, y: Float) {
+        ensureCapacity(1, 2)
+        include(x, y)
+        ops[opCount++] = op
+        coords[coordCount++] = x
+        coords[coordCount++] = y
+    }
+
+    private fun include(x: Float, y: Float, first: Boolean = opCount == 0) {
+        if (first) {
+            left = x
+            right = x
+            top = y
+            bottom = y
+            return
+        }
+        if (left > x)
+            left = x
+        if (right < x)
+            right = x
+        if (top > y)
+            top = y
+        if (bottom < y)
+            bottom = y
+    }
+
+    private fun ensureCapacity(extraOps: Int, extraCoords: Int) {
+        if (opCount + extraOps > ops.size)
+            ops = ops.copyOf(Math.max(ops.size * 2, opCount + extraOps))
+        if (coordCount + extraCoords > coords.size)
+            coords = coords.copyOf(Math.max(coords.size * 2, coordCount + extraCoords))
+    }
+
+    companion object {
+        const val OP_MOVE: Byte = 0
+        const val OP_LINE: Byte = 1
+        const val OP_QUAD: Byte = 2
+
+        const val QUAD_STEPS = 4
+
+        private const val INITIAL_CAPACITY = 16
+        private const val ARRAY_OVERHEAD = 16L
+        // two decimals are far below a pixel at any sensible export scale
+        private const val SVG_DECIMAL_SCALE = 100L
+        // far beyond any canvas, and small enough that the digits fit SVG_NUMBER_BUFFER_SIZE
+        private const val SVG_MAX_VALUE = 1e15
+        /** Enough for the longest segment: an opcode, four numbers and three separators. */
+        const val SVG_SEGMENT_BUFFER_SIZE = 128
+        /** Enough for the longest PDF segment: six numbers, their separators and an operator. */
+        private const val PDF_SEGMENT_BUFFER_SIZE = 160
+        /** Enough for any number written by [formatSvgNumber]. */
+        const val SVG_NUMBER_BUFFER_SIZE = 24
+
+        fun coordsPerOp(op: Byte): Int {
+            return if (op == OP_QUAD) 4 else 2
+        }
+
+        /**
+         * Writes [value] with at most two decimals and without trailing zeros into [buffer] at
+         * [offset] and returns the offset behind it. Unlike string conversion, this allocates
+         * nothing and never produces an exponent, which neither SVG path data nor PDF allow.
+         * Values beyond ±10^15 are clamped.
+         */
+        @JvmStatic
+        fun formatSvgNumber(value: Float, buffer: CharArray, offset: Int): Int {
+            var pos = offset
+            if (value.isNaN() || value.isInfinite()) {
+                buffer[pos++] = '0'
+                return pos
+            }
+            val clamped = Math.max(-SVG_MAX_VALUE, Math.min(SVG_MAX_VALUE, value.toDouble()))
+            var scaled = Math.round(clamped * SVG_DECIMAL_SCALE)
+            if (scaled < 0) {
+                buffer[pos++] = '-'
+                scaled = -scaled
+            }
+            var integer = scaled / SVG_DECIMAL_SCALE
+            val fraction = (scaled % SVG_DECIMAL_SCALE).toInt()
+
+            val start = pos
+            do {
+                buffer[pos++] = '0' + (integer % 10).toInt()
+                integer /= 10
+            } while (integer > 0)
+            var i = start
+            var j = pos - 1
+            while (i < j) {
+                val tmp = buffer[i]
+                buffer[i++] = buffer[j]
+                buffer[j--] = tmp
+            }
+
+            if (fraction != 0) {
+                buffer[pos++] = '.'
+                buffer[pos++] = '0' + fraction / 10
+                if (fraction % 10 != 0)
+                    buffer[pos++] = '0' + fraction % 10
+            }
+            return pos
+        }
+
+        /**
+         * Squared distance between the segments AB and CD, zero if they cross.
+         */
+        fun segmentDistanceSq(ax: Float, ay: Float, bx: Float, by: Float,
+                              cx: Float, cy: Float, dx: Float, dy: Float): Float {
+            if (segmentsIntersect(ax, ay, bx, by, cx, cy, dx, dy))
+                return 0f
+            return Math.min(
+                    Math.min(pointDistanceSq(ax, ay, cx, cy, dx, dy), pointDistanceSq(bx, by, cx, cy, dx, dy)),
+                    Math.min(pointDistanceSq(cx, cy, ax, ay, bx, by), pointDistanceSq(dx, dy, ax, ay, bx, by)))
+        }
+
+        /**
+         * Squared distance from the point P to the segment AB.
+         */
+        fun pointDistanceSq(px: Float, py: Float, ax: Float, ay: Float, bx: Float, by: Float): Float {
+            val abx = bx - ax
+            val aby = by - ay
+            val lengthSq = abx * abx + aby * aby
+            var t = 0f
+            if (lengthSq > 0)
+                t = Math.max(0f, Math.min(1f, ((px - ax) * abx + (py - ay) * aby) / lengthSq))
+            val x = ax + t * abx - px
+            val y = ay + t * aby - py
+            return x * x + y * y
+        }
+
+        private fun segmentsIntersect(ax: Float, ay: Float, bx: Float, by: Float,
+                                      cx: Float, cy: Float, dx: Float, dy: Float): Boolean {
+            val d1 = cross(cx, cy, dx, dy, ax, ay)
+            val d2 = cross(cx, cy, dx, dy, bx, by)
+            val d3 = cross(ax, ay, bx, by, cx, cy)
+            val d4 = cross(ax, ay, bx, by, dx, dy)
+            return ((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0))
+        }
+
+        private fun cross(ax: Float, ay: Float, bx: Float, by: Float, px: Float, py: Float): Float {
+            return (bx - ax) * (py - ay) - (by - ay) * (px - ax)
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.divyanshu.draw.core
+
+import java.util.ArrayList
+import java.util.HashMap
+
+/**
+ * Uniform grid over stroke bounds used to find the strokes near a point without looking at
+ * every stroke. Strokes covering more than [MAX_CELLS] cells are kept in a separate list that
+ * every query returns. Bounds are passed as plain coordinates so the index does not depend on
+ * any platform rectangle type.
+ */
+class SpatialIndex<T>(private val cellSize: Float = DEFAULT_CELL_SIZE) {
+    private val mCells = HashMap<Long, ArrayList<T>>()
+    private val mLarge = ArrayList<T>()
+
+    fun insert(item: T, left: Float, top: Float, right: Float, bottom: Float) {
+        if (cellCount(left, top, right, bottom) > MAX_CELLS) {
+            mLarge.add(item)
+            return
+        }
+        forEachCell(left, top, right, bottom) { key ->
+            var cell = mCells[key]
+            if (cell == null) {
+                cell = ArrayList()
+                mCells[key] = cell
+            }
+            cell.add(item)
+        }
+    }
+
+    fun remove(item: T, left: Float, top: Float, right: Float, bottom: Float) {
+        if (cellCount(left, top, right, bottom) > MAX_CELLS) {
+            mLarge.remove(item)
+            return
+        }
+        forEachCell(left, top, right, bottom) { key ->
+            val cell = mCells[key]
+            if (cell != null) {
+                cell.remove(item)
+                if (cell.isEmpty())
+                    mCells.remove(key)
+            }
+        }
+    }
+
+    /**
+     * Adds every stroke whose cells overlap the given area to [result]. Candidates still have
+     * to be checked exactly.
+     */
+    fun query(left: Float, top: Float, right: Float, bottom: Float, result: MutableCollection<T>) {
+        result.addAll(mLarge)
+        if (cellCount(left, top, right, bottom) > MAX_CELLS) {
+            for (cell in mCells.values)
+                result.addAll(cell)
+            return
+        }
+        forEachCell(left, top, right, bottom) { key ->
+            val cell = mCells[key]
+            if (cell != null)
+                result.addAll(cell)
+        }
+    }
+
+    fun clear() {
+        mCells.clear()
+        mLarge.clear()
+    }
+
+    private fun cellCount(left: Float, top: Float, right: Float, bottom: Float): Long {
+        val columns = cell(right) - cell(left) + 1
+        val rows = cell(bottom) - cell(top) + 1
+        return columns.toLong() * rows
+    }
+
+    private inline fun forEachCell(left: Float, top: Float, right: Float, bottom: Float, action: (Long) -> Unit) {
+        for (x in cell(left)..cell(right))
+            for (y in cell(top)..cell(bottom))
+                action((x.toLong() shl 32) or (y.toLong() and 0xffffffffL))
+    }
+
+    private fun cell(value: Float): Int {
+        return Math.floor((value / cellSize).toDouble()).toInt()
+    }
+
+    companion object {
+        const val DEFAULT_CELL_SIZE = 256f
+        private const val MAX_CELLS = 1024
+    }
+}
@@ -0,0 +1,106 @@
+package com.divyanshu.draw.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PathCodecTest {
+
+    /**
+     * Declares the stored field names literally, as they appear in existing sketches, so a
+     * codec writing other names fails.
+     */
+    static class Stroke implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private static final ObjectStreamField[] serialPersistentFields = {
+                new ObjectStreamField("ops", byte[].class),
+                new ObjectStreamField("coords", float[].class)
+        };
+
+        transient PathData data = new PathData();
+        transient boolean read;
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            ObjectOutputStream.PutField fields = out.putFields();
+            if (data != null)
+                PathCodec.write(data, fields);
+            out.writeFields();
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            data = new PathData();
+            read = PathCodec.read(data, in.readFields());
+        }
+    }
+
+    private static Stroke roundTrip(Stroke stroke) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(stroke);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return (Stroke) in.readObject();
+    }
+
+    @Test
+    public void fieldNames_matchStoredFormat() {
+        assertEquals("ops", PathCodec.FIELD_OPS);
+        assertEquals("coords", PathCodec.FIELD_COORDS);
+    }
+
+    @Test
+    public void roundTrip_keepsSegmentsAndBounds() throws Exception {
+        Stroke stroke = new Stroke();
+        stroke.data.moveTo(1, 2);
+        stroke.data.lineTo(3, 4);
+        stroke.data.quadTo(10, -5, 6, 7);
+
+        Stroke copy = roundTrip(stroke);
+        assertTrue(copy.read);
+        assertEquals(3, copy.data.getOpCount());
+        assertArrayEquals(new byte[]{PathData.OP_MOVE, PathData.OP_LINE, PathData.OP_QUAD},
+                copy.data.getOps());
+        assertArrayEquals(new float[]{1, 2, 3, 4, 10, -5, 6, 7}, copy.data.getCoords(), 0f);
+        assertEquals(1, copy.data.getLeft(), 0f);
+        assertEquals(-5, copy.data.getTop(), 0f);
+        assertEquals(10, copy.data.getRight(), 0f);
+        assertEquals(7, copy.data.getBottom(), 0f);
+    }
+
+    @Test
+    public void write_trimsUnusedCapacity() throws Exception {
+        Stroke stroke = new Stroke();
+        for (int i = 0; i < 100; i++)
+            stroke.data.lineTo(i, i);
+        Stroke copy = roundTrip(stroke);
+        assertEquals(100, copy.data.getOps().length);
+        assertEquals(200, copy.data.getCoords().length);
+    }
+
+    @Test
+    public void roundTrip_emptyPath() throws Exception {
+        Stroke copy = roundTrip(new Stroke());
+        assertTrue(copy.read);
+        assertTrue(copy.data.isEmpty());
+    }
+
+    @Test
+    public void read_withoutFields_leavesDataUntouched() throws Exception {
+        Stroke stroke = new Stroke();
+        stroke.data = null;
+        Stroke copy = roundTrip(stroke);
+        assertFalse(copy.read);
+        assertTrue(copy.data.isEmpty());
+    }
+}
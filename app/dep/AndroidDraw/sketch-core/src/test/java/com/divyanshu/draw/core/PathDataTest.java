@@ -0,0 +1,485 @@
+package com.divyanshu.draw.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PathDataTest {
+    private static final float DELTA = 1e-4f;
+
+    private static String format(float value) {
+        char[] buffer = new char[PathData.SVG_NUMBER_BUFFER_SIZE];
+        return new String(buffer, 0, PathData.formatSvgNumber(value, buffer, 0));
+    }
+
+    private static byte[] ops(PathData data) {
+        byte[] ops = new byte[data.getOpCount()];
+        System.arraycopy(data.getOps(), 0, ops, 0, ops.length);
+        return ops;
+    }
+
+    private static float[] coords(PathData data) {
+        float[] coords = new float[data.getCoordCount()];
+        System.arraycopy(data.getCoords(), 0, coords, 0, coords.length);
+        return coords;
+    }
+
+    /**
+     * Smallest distance from a point to the polyline through the end points of the segments.
+     */
+    private static float distanceToPolyline(float x, float y, PathData data) {
+        float best = Float.POSITIVE_INFINITY;
+        float[] coords = coords(data);
+        for (int i = 2; i < coords.length; i += 2)
+            best = Math.min(best, PathData.Companion.pointDistanceSq(x, y,
+                    coords[i - 2], coords[i - 1], coords[i], coords[i + 1]));
+        return (float) Math.sqrt(best);
+    }
+
+    /**
+     * Plain recursive Ramer-Douglas-Peucker on points, as a reference for the iterative version.
+     */
+    private static void referenceKeep(float[] xs, float[] ys, int first, int last, float tolerance, boolean[] keep) {
+        int farthest = -1;
+        float farthestSq = tolerance * tolerance;
+        for (int k = first + 1; k < last; k++) {
+            float distanceSq = PathData.Companion.pointDistanceSq(xs[k], ys[k], xs[first], ys[first], xs[last], ys[last]);
+            if (distanceSq > farthestSq) {
+                farthest = k;
+                farthestSq = distanceSq;
+            }
+        }
+        if (farthest < 0)
+            return;
+        keep[farthest] = true;
+        referenceKeep(xs, ys, first, farthest, tolerance, keep);
+        referenceKeep(xs, ys, farthest, last, tolerance, keep);
+    }
+
+    @Test
+    public void append_storesOpsAndCoords() {
+        PathData data = new PathData();
+        assertTrue(data.isEmpty());
+        data.moveTo(1, 2);
+        data.lineTo(3, 4);
+        data.quadTo(5, 6, 7, 8);
+
+        assertFalse(data.isEmpty());
+        assertArrayEquals(new byte[]{PathData.OP_MOVE, PathData.OP_LINE, PathData.OP_QUAD}, ops(data));
+        assertArrayEquals(new float[]{1, 2, 3, 4, 5, 6, 7, 8}, coords(data), 0f);
+    }
+
+    @Test
+    public void append_growsBeyondInitialCapacity() {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        for (int i = 1; i < 1000; i++)
+            data.quadTo(i, i, i, -i);
+
+        assertEquals(1000, data.getOpCount());
+        assertEquals(2 + 999 * 4, data.getCoordCount());
+        assertEquals(PathData.OP_QUAD, data.getOps()[999]);
+        assertEquals(-999, data.getCoords()[data.getCoordCount() - 1], 0f);
+    }
+
+    @Test
+    public void clear_keepsCapacity() {
+        PathData data = new PathData();
+        for (int i = 0; i < 100; i++)
+            data.lineTo(i, i);
+        long footprint = data.getFootprint();
+
+        data.clear();
+        assertTrue(data.isEmpty());
+        assertEquals(0, data.getCoordCount());
+        assertEquals(footprint, data.getFootprint());
+    }
+
+    @Test
+    public void trimToSize_dropsUnusedCapacity() {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        data.lineTo(1, 1);
+        long footprint = data.getFootprint();
+
+        data.trimToSize();
+        assertEquals(2, data.getOps().length);
+        assertEquals(4, data.getCoords().length);
+        assertTrue(data.getFootprint() < footprint);
+        assertArrayEquals(new float[]{0, 0, 1, 1}, data.getCoords(), 0f);
+    }
+
+    @Test
+    public void set_takesArraysOver() {
+        byte[] ops = {PathData.OP_MOVE, PathData.OP_QUAD};
+        float[] coords = {0, 0, 5, 5, 10, 0};
+        PathData data = new PathData();
+        data.lineTo(99, 99);
+
+        data.set(ops, coords);
+        assertSame(ops, data.getOps());
+        assertSame(coords, data.getCoords());
+        assertEquals(2, data.getOpCount());
+        assertEquals(6, data.getCoordCount());
+
+        data.lineTo(20, 0);
+        assertArrayEquals(new float[]{0, 0, 5, 5, 10, 0, 20, 0}, coords(data), 0f);
+    }
+
+    private static void assertBounds(float left, float top, float right, float bottom, PathData data) {
+        assertEquals(left, data.getLeft(), 0f);
+        assertEquals(top, data.getTop(), 0f);
+        assertEquals(right, data.getRight(), 0f);
+        assertEquals(bottom, data.getBottom(), 0f);
+    }
+
+    @Test
+    public void bounds_singlePoint() {
+        PathData data = new PathData();
+        data.moveTo(-3, 7);
+        assertBounds(-3, 7, -3, 7, data);
+    }
+
+    @Test
+    public void bounds_growWithEverySegment() {
+        PathData data = new PathData();
+        data.moveTo(10, 10);
+        data.lineTo(20, 5);
+        assertBounds(10, 5, 20, 10, data);
+        data.lineTo(-5, 30);
+        assertBounds(-5, 5, 20, 30, data);
+    }
+
+    @Test
+    public void bounds_includeQuadControlPoint() {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        data.quadTo(5, -20, 10, 0);
+        assertBounds(0, -20, 10, 0, data);
+    }
+
+    @Test
+    public void bounds_restartAfterClear() {
+        PathData data = new PathData();
+        data.moveTo(-100, -100);
+        data.lineTo(100, 100);
+        data.clear();
+        data.moveTo(1, 2);
+        assertBounds(1, 2, 1, 2, data);
+    }
+
+    @Test
+    public void bounds_recomputedBySet() {
+        PathData data = new PathData();
+        data.moveTo(-100, -100);
+        data.set(new byte[]{PathData.OP_MOVE, PathData.OP_QUAD}, new float[]{0, 0, 5, 20, 10, -4});
+        assertBounds(0, -4, 10, 20, data);
+    }
+
+    @Test
+    public void simplify_emptyPath() {
+        assertTrue(new PathData().simplify(1f).isEmpty());
+    }
+
+    @Test
+    public void simplify_straightRunKeepsEndPoints() {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        for (int i = 1; i <= 100; i++)
+            data.lineTo(i, (i % 2) * 0.4f);
+        data.lineTo(100, 0);
+
+        PathData simplified = data.simplify(1f);
+        assertArrayEquals(new byte[]{PathData.OP_MOVE, PathData.OP_LINE}, ops(simplified));
+        assertArrayEquals(new float[]{0, 0, 100, 0}, coords(simplified), DELTA);
+        // the source is not changed
+        assertEquals(102, data.getOpCount());
+    }
+
+    @Test
+    public void simplify_staysWithinTolerance() {
+        Random random = new Random(1);
+        PathData data = new PathData();
+        float x = 0;
+        float y = 0;
+        data.moveTo(x, y);
+        float[] xs = new float[1000];
+        float[] ys = new float[1000];
+        for (int i = 0; i < xs.length; i++) {
+            x += random.nextFloat() * 4;
+            y += random.nextFloat() * 4 - 2;
+            xs[i] = x;
+            ys[i] = y;
+            data.lineTo(x, y);
+        }
+
+        float tolerance = 1.5f;
+        PathData simplified = data.simplify(tolerance);
+        assertTrue(simplified.getOpCount() < data.getOpCount());
+        for (int i = 0; i < xs.length; i++)
+            assertTrue(distanceToPolyline(xs[i], ys[i], simplified) <= tolerance + DELTA);
+    }
+
+    @Test
+    public void simplify_flatQuadsBecomeLines() {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        data.quadTo(5, 0.2f, 10, 0);
+        data.quadTo(15, -0.1f, 20, 0);
+
+        PathData simplified = data.simplify(1f);
+        assertArrayEquals(new byte[]{PathData.OP_MOVE, PathData.OP_LINE}, ops(simplified));
+        assertArrayEquals(new float[]{0, 0, 20, 0}, coords(simplified), DELTA);
+    }
+
+    @Test
+    public void simplify_keepsCurvedQuads() {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        data.lineTo(5, 0);
+        data.lineTo(10, 0);
+        data.quadTo(15, 20, 20, 0);
+        data.lineTo(25, 0);
+        data.lineTo(30, 0);
+
+        PathData simplified = data.simplify(1f);
+        assertArrayEquals(new byte[]{PathData.OP_MOVE, PathData.OP_LINE, PathData.OP_QUAD, PathData.OP_LINE},
+                ops(simplified));
+        assertArrayEquals(new float[]{0, 0, 10, 0, 15, 20, 20, 0, 30, 0}, coords(simplified), DELTA);
+    }
+
+    @Test
+    public void simplify_keepsMoves() {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        data.lineTo(5, 0);
+        data.lineTo(10, 0);
+        data.moveTo(0, 10);
+        data.lineTo(5, 10);
+        data.lineTo(10, 10);
+
+        PathData simplified = data.simplify(1f);
+        assertArrayEquals(new byte[]{PathData.OP_MOVE, PathData.OP_LINE, PathData.OP_MOVE, PathData.OP_LINE},
+                ops(simplified));
+        assertArrayEquals(new float[]{0, 0, 10, 0, 0, 10, 10, 10}, coords(simplified), DELTA);
+    }
+
+    @Test
+    public void simplify_keepsLeadingLine() {
+        PathData data = new PathData();
+        data.lineTo(0, 0);
+        data.lineTo(5, 0);
+        data.lineTo(10, 0);
+
+        PathData simplified = data.simplify(1f);
+        assertArrayEquals(new byte[]{PathData.OP_LINE, PathData.OP_LINE}, ops(simplified));
+        assertArrayEquals(new float[]{0, 0, 10, 0}, coords(simplified), DELTA);
+    }
+
+    @Test
+    public void simplify_longRunMatchesRecursiveReference() {
+        // in a zigzag the first of the equally far points is split off each time, which leaves
+        // one pending pair per split and grows the stack far beyond its initial size
+        int count = 1000;
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        PathData data = new PathData();
+        for (int i = 0; i < count; i++) {
+            xs[i] = i;
+            ys[i] = (i % 2) * 10;
+            if (i == 0)
+                data.moveTo(xs[i], ys[i]);
+            else
+                data.lineTo(xs[i], ys[i]);
+        }
+
+        float tolerance = 0.5f;
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        referenceKeep(xs, ys, 0, count - 1, tolerance, keep);
+        int kept = 0;
+        for (boolean k : keep)
+            if (k)
+                kept++;
+        assertEquals(count, kept);
+
+        PathData simplified = data.simplify(tolerance);
+        float[] coords = coords(simplified);
+        assertEquals(kept, simplified.getOpCount());
+        int j = 0;
+        for (int i = 0; i < count; i++) {
+            if (!keep[i])
+                continue;
+            assertEquals(xs[i], coords[j], DELTA);
+            assertEquals(ys[i], coords[j + 1], DELTA);
+            j += 2;
+        }
+    }
+
+    @Test
+    public void formatSvgNumber_integersAndDecimals() {
+        assertEquals("0", format(0f));
+        assertEquals("100", format(100f));
+        assertEquals("1.5", format(1.5f));
+        assertEquals("12.3", format(12.3f));
+        assertEquals("0.05", format(0.05f));
+        assertEquals("-42", format(-42f));
+    }
+
+    @Test
+    public void formatSvgNumber_roundsToTwoDecimals() {
+        assertEquals("-3.14", format(-3.14159f));
+        assertEquals("0.13", format(0.125f));
+        assertEquals("0.99", format(0.994f));
+        assertEquals("1", format(0.996f));
+    }
+
+    @Test
+    public void formatSvgNumber_negativeZero() {
+        assertEquals("0", format(-0f));
+        assertEquals("0", format(-0.001f));
+    }
+
+    @Test
+    public void formatSvgNumber_neverWritesExponent() {
+        assertEquals("999999986991104", format(1e15f));
+        assertEquals("1000000000000000", format(1e20f));
+        assertEquals("-1000000000000000", format(-Float.MAX_VALUE));
+        float[] values = {1e20f, -1e20f, Float.MAX_VALUE, -Float.MAX_VALUE, 1e-20f, Float.MIN_VALUE};
+        for (float value : values) {
+            String text = format(value);
+            assertTrue(text, text.matches("-?[0-9]+(\\.[0-9]+)?"));
+            assertTrue(text, text.length() <= PathData.SVG_NUMBER_BUFFER_SIZE);
+        }
+        assertEquals("0", format(Float.NaN));
+        assertEquals("0", format(Float.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void formatSvgNumber_writesAtOffset() {
+        char[] buffer = new char[PathData.SVG_NUMBER_BUFFER_SIZE + 2];
+        buffer[0] = 'M';
+        int end = PathData.formatSvgNumber(-2.5f, buffer, 1);
+        assertEquals("M-2.5", new String(buffer, 0, end));
+    }
+
+    private static String svg(PathData data) throws IOException {
+        StringWriter writer = new StringWriter();
+        data.writeSvg(writer);
+        return writer.toString();
+    }
+
+    @Test
+    public void writeSvg_emptyPath() throws IOException {
+        assertEquals("", svg(new PathData()));
+    }
+
+    @Test
+    public void writeSvg_allSegmentTypes() throws IOException {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        data.lineTo(10.5f, -3);
+        data.quadTo(5, 5.25f, 10, 0);
+        data.moveTo(1.256f, 2);
+        assertEquals("M0,0L10.5,-3Q5,5.25 10,0M1.26,2", svg(data));
+    }
+
+    @Test
+    public void writeSvg_longPath() throws IOException {
+        PathData data = new PathData();
+        StringBuilder expected = new StringBuilder();
+        data.moveTo(0, 0);
+        expected.append("M0,0");
+        for (int i = 1; i < 5000; i++) {
+            data.lineTo(i, -i);
+            expected.append('L').append(i).append(",-").append(i);
+        }
+        assertEquals(expected.toString(), svg(data));
+    }
+
+    private static String pdf(PathData data) throws IOException {
+        StringWriter writer = new StringWriter();
+        data.writePdf(writer);
+        return writer.toString();
+    }
+
+    @Test
+    public void writePdf_emptyPath() throws IOException {
+        assertEquals("", pdf(new PathData()));
+    }
+
+    @Test
+    public void writePdf_movesAndLines() throws IOException {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        data.lineTo(10.5f, -3);
+        data.moveTo(7, 8);
+        assertEquals("0 0 m\n10.5 -3 l\n7 8 m\n", pdf(data));
+    }
+
+    @Test
+    public void writePdf_quadsBecomeCubics() throws IOException {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        data.quadTo(3, 6, 6, 0);
+        // the control points lie two thirds of the way from each end point to the quad control point
+        assertEquals("0 0 m\n2 4 4 4 6 0 c\n", pdf(data));
+    }
+
+    @Test
+    public void writePdf_cubicStartsAtPreviousEndPoint() throws IOException {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        data.lineTo(30, 0);
+        data.quadTo(30, 30, 60, 30);
+        data.quadTo(90, 30, 90, 60);
+        assertEquals("0 0 m\n30 0 l\n30 20 40 30 60 30 c\n80 30 90 40 90 60 c\n", pdf(data));
+    }
+
+    @Test
+    public void distanceTo_emptyPathIsInfinitelyFar() {
+        assertEquals(Float.POSITIVE_INFINITY, new PathData().distanceTo(0, 0, 1, 1), 0f);
+    }
+
+    @Test
+    public void distanceTo_singlePoint() {
+        PathData data = new PathData();
+        data.moveTo(3, 4);
+        assertEquals(5, data.distanceTo(0, 0, 0, 0), DELTA);
+    }
+
+    @Test
+    public void distanceTo_line() {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        data.lineTo(10, 0);
+        assertEquals(3, data.distanceTo(5, 3, 5, 4), DELTA);
+        assertEquals(5, data.distanceTo(13, 4, 13, 4), DELTA);
+    }
+
+    @Test
+    public void distanceTo_crossingSegmentIsZero() {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        data.lineTo(10, 0);
+        assertEquals(0, data.distanceTo(5, -3, 5, 3), 0f);
+    }
+
+    @Test
+    public void distanceTo_quadFollowsCurve() {
+        PathData data = new PathData();
+        data.moveTo(0, 0);
+        data.quadTo(5, 10, 10, 0);
+        // the curve peaks at (5, 5), halfway to the control point
+        assertEquals(3, data.distanceTo(5, 8, 5, 8), DELTA);
+    }
+}
@@ -0,0 +1,88 @@
+package com.divyanshu.draw.core;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpatialIndexTest {
+    private static final float CELL = 10f;
+
+    private static Set<String> query(SpatialIndex<String> index, float left, float top, float right, float bottom) {
+        Set<String> result = new HashSet<>();
+        index.query(left, top, right, bottom, result);
+        return result;
+    }
+
+    @Test
+    public void query_returnsItemsInOverlappingCells() {
+        SpatialIndex<String> index = new SpatialIndex<>(CELL);
+        index.insert("a", 1, 1, 5, 5);
+        index.insert("b", 51, 51, 55, 55);
+        index.insert("c", -25, -25, -21, -21);
+
+        Set<String> near = query(index, 0, 0, 2, 2);
+        assertTrue(near.contains("a"));
+        assertFalse(near.contains("b"));
+        assertFalse(near.contains("c"));
+
+        assertTrue(query(index, -30, -30, -20, -20).contains("c"));
+        assertTrue(query(index, 0, 0, 100, 100).contains("b"));
+        assertTrue(query(index, 200, 200, 210, 210).isEmpty());
+    }
+
+    @Test
+    public void insert_itemSpanningCellsIsFoundInEach() {
+        SpatialIndex<String> index = new SpatialIndex<>(CELL);
+        index.insert("wide", 0, 0, 95, 5);
+        assertTrue(query(index, 1, 1, 2, 2).contains("wide"));
+        assertTrue(query(index, 91, 1, 92, 2).contains("wide"));
+        assertFalse(query(index, 1, 21, 2, 22).contains("wide"));
+    }
+
+    @Test
+    public void remove_dropsItemFromEveryCell() {
+        SpatialIndex<String> index = new SpatialIndex<>(CELL);
+        index.insert("a", 0, 0, 35, 35);
+        index.insert("b", 0, 0, 5, 5);
+        index.remove("a", 0, 0, 35, 35);
+        Set<String> result = query(index, 0, 0, 40, 40);
+        assertFalse(result.contains("a"));
+        assertTrue(result.contains("b"));
+    }
+
+    @Test
+    public void largeItems_areReturnedByEveryQuery() {
+        SpatialIndex<String> index = new SpatialIndex<>(CELL);
+        // 400 x 400 cells is far more than the grid limit
+        index.insert("huge", 0, 0, 4000, 4000);
+        index.insert("small", 0, 0, 5, 5);
+        assertTrue(query(index, -500, -500, -490, -490).contains("huge"));
+        assertFalse(query(index, -500, -500, -490, -490).contains("small"));
+
+        index.remove("huge", 0, 0, 4000, 4000);
+        assertFalse(query(index, 0, 0, 5, 5).contains("huge"));
+    }
+
+    @Test
+    public void largeQuery_returnsEverything() {
+        SpatialIndex<String> index = new SpatialIndex<>(CELL);
+        index.insert("a", 0, 0, 5, 5);
+        index.insert("b", 3000, 3000, 3005, 3005);
+        Set<String> result = query(index, -10000, -10000, 10000, 10000);
+        assertEquals(2, result.size());
+    }
+
+    @Test
+    public void clear_removesAllItems() {
+        SpatialIndex<String> index = new SpatialIndex<>(CELL);
+        index.insert("a", 0, 0, 5, 5);
+        index.insert("huge", 0, 0, 4000, 4000);
+        index.clear();
+        assertTrue(query(index, -10000, -10000, 10000, 10000).isEmpty());
+    }
+}
@@ -16,78 +16,147 @@
  */
 package org.secuso.privacyfriendlysketching.activities;
 
+import android.content.ActivityNotFoundException;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.os.AsyncTask;
+import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AlertDialog;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.view.ActionMode;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.RecyclerView;
-import android.util.Pair;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
+import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
+import android.widget.ProgressBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import org.secuso.privacyfriendlysketching.R;
 import org.secuso.privacyfriendlysketching.activities.helper.BaseActivity;
 import org.secuso.privacyfriendlysketching.database.RoomHandler;
 import org.secuso.privacyfriendlysketching.database.Sketch;
+import org.secuso.privacyfriendlysketching.database.SketchChange;
+import org.secuso.privacyfriendlysketching.database.SketchInfo;
+import org.secuso.privacyfriendlysketching.export.BatchExporter;
+import org.secuso.privacyfriendlysketching.export.UriDestination;
+import org.secuso.privacyfriendlysketching.helpers.TaskScheduler;
+import org.secuso.privacyfriendlysketching.helpers.ThumbnailCache;
+import org.secuso.privacyfriendlysketching.helpers.ThumbnailLoader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.SketchViewHolder> {
-    final private int[] sketchIds;
-    final private RoomHandler roomHandler;
+    private SketchInfo[] sketches;
+    final private int thumbnailSize;
+    final private ThumbnailCache thumbnailCache;
+    final private ThumbnailLoader thumbnailLoader;
+    final private HashSet<Integer> selectedIds = new HashSet<>();
+    private boolean selectionMode = false;
+
+    // rebinds only the selection state of a card and keeps its thumbnail
+    final private static Object SELECTION_CHANGED = new Object();
+
+    static class SketchDiffCallback extends DiffUtil.Callback {
+        final private SketchInfo[] oldSketches;
+        final private SketchInfo[] newSketches;
+
+        SketchDiffCallback(SketchInfo[] oldSketches, SketchInfo[] newSketches) {
+            this.oldSketches = oldSketches;
+            this.newSketches = newSketches;
+        }
 
-    private static class GetSketchAsyncTask extends AsyncTask<Integer, Void, Pair<Sketch, Bitmap>> {
-        final private RoomHandler roomHandler;
-        final private SketchViewHolder holder;
+        @Override
+        public int getOldListSize() {
+            return oldSketches.length;
+        }
 
-        GetSketchAsyncTask(RoomHandler roomHandler, SketchViewHolder holder) {
-            this.roomHandler = roomHandler;
-            this.holder = holder;
+        @Override
+        public int getNewListSize() {
+            return newSketches.length;
         }
 
         @Override
-        protected Pair<Sketch, Bitmap> doInBackground(Integer... id) {
-            Sketch sketch = this.roomHandler.getSketchSync(id[0]);
-            if (sketch == null)
-                return new Pair<>(null, null);
-            Bitmap image = sketch.getFullImage(1024, 1024);
-            return new Pair<>(sketch, image);
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldSketches[oldItemPosition].id == newSketches[newItemPosition].id;
         }
 
         @Override
-        protected void onPostExecute(Pair<Sketch, Bitmap> data) {
-            int sketchId = GalleryActivity.getSketchIdFromView(holder.cardView);
-            if (data.first != null && sketchId != data.first.id)
-                return;
-            if (data.first == null) {
-                holder.getTextView().setText(String.format("Error loading sketch id=%d", sketchId));
-            } else {
-                holder.cardView.setTag(data.first);
-                holder.getTextView().setText(data.first.getDescription());
-                holder.getImageView().setImageBitmap(data.second);
-            }
-            holder.cardView.animate().alpha(1);
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            SketchInfo oldSketch = oldSketches[oldItemPosition];
+            SketchInfo newSketch = newSketches[newItemPosition];
+            return oldSketch.version == newSketch.version
+                    && TextUtils.equals(oldSketch.description, newSketch.description);
         }
     }
 
     // Provide a reference to the views for each data item
     // Complex data items may need more than one view per item, and
     // you provide access to all the views for a data item in a view holder
-    public static class SketchViewHolder extends RecyclerView.ViewHolder {
+    public static class SketchViewHolder extends RecyclerView.ViewHolder implements ThumbnailLoader.Callback {
         // each data item is just a string in this case
         CardView cardView;
-        AsyncTask asyncTask;
+        final ThumbnailCache thumbnailCache;
+        final Drawable selectedForeground;
+        ThumbnailLoader.Task thumbnailTask;
+        Bitmap thumbnail;
 
-        SketchViewHolder(CardView v) {
+        SketchViewHolder(CardView v, ThumbnailCache thumbnailCache) {
             super(v);
             cardView = v;
+            this.thumbnailCache = thumbnailCache;
+            selectedForeground = ContextCompat.getDrawable(v.getContext(), R.drawable.gallery_entry_selected);
+        }
+
+        void setSelected(boolean selected) {
+            cardView.setForeground(selected ? selectedForeground : null);
+        }
+
+        void setThumbnail(Bitmap thumbnail) {
+            getImageView().setImageBitmap(thumbnail);
+            if (this.thumbnail != null)
+                thumbnailCache.release(this.thumbnail);
+            this.thumbnail = thumbnail;
+        }
+
+        void clearThumbnail() {
+            if (thumbnailTask != null)
+                thumbnailTask.cancel();
+            thumbnailTask = null;
+            setThumbnail(null);
+        }
+
+        @Override
+        public void onThumbnailLoaded(int id, Bitmap thumbnail) {
+            thumbnailTask = null;
+            int sketchId = GalleryActivity.getSketchIdFromView(cardView);
+            if (sketchId != id) {
+                if (thumbnail != null)
+                    thumbnailCache.release(thumbnail);
+                return;
+            }
+            if (thumbnail == null)
+                getTextView().setText(String.format("Error loading sketch id=%d", sketchId));
+            else
+                setThumbnail(thumbnail);
+            cardView.animate().alpha(1);
         }
 
         public ImageView getImageView() {
@@ -100,9 +169,81 @@ class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.SketchViewHolde
     }
 
     // Provide a suitable constructor (depends on the kind of dataset)
-    GalleryAdapter(RoomHandler roomHandler, int[] sketchIds) {
-        this.roomHandler = roomHandler;
-        this.sketchIds = sketchIds;
+    GalleryAdapter(ThumbnailCache thumbnailCache, ThumbnailLoader thumbnailLoader, SketchInfo[] sketches, int thumbnailSize) {
+        this.thumbnailCache = thumbnailCache;
+        this.thumbnailLoader = thumbnailLoader;
+        this.sketches = sketches;
+        this.thumbnailSize = thumbnailSize;
+    }
+
+    SketchInfo[] getSketches() {
+        return sketches;
+    }
+
+    /**
+     * Replaces the data set, notifying only the positions that the given diff reports as changed,
+     * so unchanged cards keep their thumbnails.
+     */
+    void setSketches(SketchInfo[] sketches, DiffUtil.DiffResult diff) {
+        this.sketches = sketches;
+        if (!selectedIds.isEmpty()) {
+            HashSet<Integer> ids = new HashSet<>();
+            for (SketchInfo info : sketches)
+                ids.add(info.id);
+            selectedIds.retainAll(ids);
+        }
+        diff.dispatchUpdatesTo(this);
+    }
+
+    /**
+     * Enters or leaves the mode in which tapping a card selects it, clearing the selection.
+     */
+    void setSelectionMode(boolean selectionMode) {
+        this.selectionMode = selectionMode;
+        selectedIds.clear();
+        notifyItemRangeChanged(0, sketches.length, SELECTION_CHANGED);
+    }
+
+    boolean isSelectionMode() {
+        return selectionMode;
+    }
+
+    void toggleSelection(int id) {
+        if (!selectedIds.remove(id))
+            selectedIds.add(id);
+        for (int i = 0; i < sketches.length; i++) {
+            if (sketches[i].id == id)
+                notifyItemChanged(i, SELECTION_CHANGED);
+        }
+    }
+
+    void selectAll() {
+        for (SketchInfo info : sketches)
+            selectedIds.add(info.id);
+        notifyItemRangeChanged(0, sketches.length, SELECTION_CHANGED);
+    }
+
+    int getSelectionCount() {
+        return selectedIds.size();
+    }
+
+    /**
+     * Returns the ids of the selected sketches in the order of the gallery.
+     */
+    int[] getSelectedIds() {
+        int[] ids = new int[selectedIds.size()];
+        int count = 0;
+        for (SketchInfo info : sketches) {
+            if (selectedIds.contains(info.id))
+                ids[count++] = info.id;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    void setSelectedIds(int[] ids) {
+        for (int id : ids)
+            selectedIds.add(id);
+        notifyItemRangeChanged(0, sketches.length, SELECTION_CHANGED);
     }
 
     // Create new views (invoked by the layout manager)
@@ -115,7 +256,7 @@ class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.SketchViewHolde
                 .inflate(R.layout.fragment_gallery_entry, parent, false);
 
         v.setOnLongClickListener((GalleryActivity) parent.getContext());
-        return new SketchViewHolder(v);
+        return new SketchViewHolder(v, thumbnailCache);
     }
 
     // Replace the contents of a view (invoked by the layout manager)
@@ -123,29 +264,139 @@ class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.SketchViewHolde
     public void onBindViewHolder(@NonNull SketchViewHolder holder, int position) {
         // - get element from your dataset at this position
         // - replace the contents of the view with that element
-        holder.cardView.setTag(sketchIds[position]);
+        SketchInfo info = sketches[position];
+        holder.cardView.setTag(info);
         holder.cardView.animate().cancel();
+        holder.getTextView().setText(info.getDescription());
+        holder.setSelected(selectedIds.contains(info.id));
+        holder.clearThumbnail();
+
+        Bitmap thumbnail = thumbnailCache.acquireMemory(info.id, info.version, thumbnailSize);
+        if (thumbnail != null) {
+            holder.setThumbnail(thumbnail);
+            holder.cardView.setAlpha(1);
+            return;
+        }
         holder.cardView.setAlpha(0);
-        holder.getTextView().setText(null);
-        holder.getImageView().setImageBitmap(null);
-        if (holder.asyncTask != null && holder.asyncTask.getStatus() == AsyncTask.Status.PENDING)
-            holder.asyncTask.cancel(true);
-        holder.asyncTask = new GetSketchAsyncTask(this.roomHandler, holder).execute(sketchIds[position]);
+        holder.thumbnailTask = thumbnailLoader.load(info.id, info.version, thumbnailSize, position, holder);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull SketchViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty())
+            onBindViewHolder(holder, position);
+        else
+            holder.setSelected(selectedIds.contains(sketches[position].id));
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull SketchViewHolder holder) {
+        holder.clearThumbnail();
     }
 
     // Return the size of your dataset (invoked by the layout manager)
     @Override
     public int getItemCount() {
-        return this.sketchIds.length;
+        return this.sketches.length;
     }
 }
 
-public class GalleryActivity extends BaseActivity implements View.OnLongClickListener {
+public class GalleryActivity extends BaseActivity implements View.OnLongClickListener, RoomHandler.OnSketchChangeListener {
     private RecyclerView recyclerView;
+    private GridLayoutManager layoutManager;
+    private ThumbnailLoader thumbnailLoader;
+    private GalleryAdapter adapter;
+    private TaskScheduler.Task<LoadedSketches> loadTask;
+    private boolean reloadPending = false;
+    private String searchQuery = "";
+    private int sortOrder;
+    private ActionMode actionMode;
+    private int exportFormat = BatchExporter.FORMAT_PNG;
+    private BatchExporter batchExporter;
+    private AlertDialog batchExportDialog;
+
+    private final static String PREF_GALLERY_SORT = "gallery_sort";
+    private final static int REQUEST_CREATE_EXPORT = 1;
+
+    private static class RetainedState {
+        SketchInfo[] sketches;
+        String searchQuery;
+        int[] selectedIds;
+        int exportFormat;
+        BatchExporter batchExporter;
+    }
+
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.gallery_selection_menu, menu);
+            adapter.setSelectionMode(true);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            switch (item.getItemId()) {
+                case R.id.action_select_all:
+                    adapter.selectAll();
+                    updateSelectionTitle();
+                    return true;
+                case R.id.action_export:
+                    if (adapter.getSelectionCount() > 0)
+                        chooseExportFormat();
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            actionMode = null;
+            adapter.setSelectionMode(false);
+        }
+    };
+
+    private final BatchExporter.Listener batchExportListener = new BatchExporter.Listener() {
+        @Override
+        public void onBatchProgress(int done, int total, float sketchesPerSecond) {
+            ProgressBar progressBar = batchExportDialog.findViewById(R.id.batch_export_progress);
+            TextView text = batchExportDialog.findViewById(R.id.batch_export_text);
+            progressBar.setMax(total);
+            progressBar.setProgress(done);
+            text.setText(getString(R.string.batch_export_progress, done, total, sketchesPerSecond));
+        }
+
+        @Override
+        public void onBatchFinished(int exported, int failed, float sketchesPerSecond) {
+            onBatchExportDone();
+            if (failed == 0)
+                Toast.makeText(GalleryActivity.this, getString(R.string.batch_export_finished, exported, sketchesPerSecond),
+                        Toast.LENGTH_LONG).show();
+            else
+                Toast.makeText(GalleryActivity.this, getString(R.string.batch_export_partial, exported, failed),
+                        Toast.LENGTH_LONG).show();
+        }
+
+        @Override
+        public void onBatchFailed(IOException e) {
+            onBatchExportDone();
+            // a cancelled export needs no message
+            if (!(e instanceof InterruptedIOException))
+                Toast.makeText(GalleryActivity.this, R.string.export_failed, Toast.LENGTH_SHORT).show();
+        }
+    };
 
     static int getSketchIdFromView(View v) {
         Object tag = v.getTag();
-        if (tag instanceof Sketch)
+        if (tag instanceof SketchInfo)
+            return ((SketchInfo) tag).id;
+        else if (tag instanceof Sketch)
             return ((Sketch) tag).id;
         else
             return (int) tag;
@@ -153,7 +404,9 @@ public class GalleryActivity extends BaseActivity implements View.OnLongClickLis
 
     static String getSketchDescriptionFromView(View v) {
         Object tag = v.getTag();
-        if (tag instanceof Sketch)
+        if (tag instanceof SketchInfo)
+            return ((SketchInfo) tag).getDescription();
+        else if (tag instanceof Sketch)
             return ((Sketch) tag).getDescription();
         else
             return "";
@@ -166,7 +419,6 @@ public class GalleryActivity extends BaseActivity implements View.OnLongClickLis
 
         recyclerView = findViewById(R.id.recycler_view);
 
-        RecyclerView.LayoutManager layoutManager;
         int orientation = getResources().getConfiguration().orientation;
         int amountOfColums;
         if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
@@ -176,35 +428,321 @@ public class GalleryActivity extends BaseActivity implements View.OnLongClickLis
         }
         layoutManager = new GridLayoutManager(this, amountOfColums);
         recyclerView.setLayoutManager(layoutManager);
+
+        thumbnailLoader = new ThumbnailLoader(getRoomHandler(), ThumbnailCache.getInstance(this));
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                thumbnailLoader.setVisibleRange(layoutManager.findFirstVisibleItemPosition(),
+                        layoutManager.findLastVisibleItemPosition());
+            }
+        });
+
+        ThumbnailCache thumbnailCache = ThumbnailCache.getInstance(this);
+        // thumbnails are rendered at the size of a card instead of a fixed resolution
+        int thumbnailSize = getResources().getDimensionPixelSize(R.dimen.gallery_entry_size);
+        sortOrder = mSharedPreferences.getInt(PREF_GALLERY_SORT, RoomHandler.SORT_MODIFIED);
+        RetainedState retained = (RetainedState) getLastCustomNonConfigurationInstance();
+        SketchInfo[] sketches = new SketchInfo[0];
+        if (retained != null) {
+            sketches = retained.sketches;
+            searchQuery = retained.searchQuery;
+            exportFormat = retained.exportFormat;
+        }
+        adapter = new GalleryAdapter(thumbnailCache, thumbnailLoader, sketches, thumbnailSize);
+        recyclerView.setAdapter(adapter);
+        if (retained != null && retained.selectedIds != null) {
+            actionMode = startSupportActionMode(selectionCallback);
+            adapter.setSelectedIds(retained.selectedIds);
+            updateSelectionTitle();
+        }
+        if (retained != null && retained.batchExporter != null)
+            showBatchExport(retained.batchExporter);
+
+        getRoomHandler().addOnSketchChangeListener(this);
+        if (retained == null)
+            loadSketches();
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        RetainedState state = new RetainedState();
+        state.sketches = adapter.getSketches();
+        state.searchQuery = searchQuery;
+        state.selectedIds = adapter.isSelectionMode() ? adapter.getSelectedIds() : null;
+        state.exportFormat = exportFormat;
+        state.batchExporter = batchExporter;
+        return state;
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.gallery_menu, menu);
+
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        if (!searchQuery.isEmpty()) {
+            searchItem.expandActionView();
+            searchView.setQuery(searchQuery, false);
+            searchView.clearFocus();
+        }
+        int sortItem;
+        switch (sortOrder) {
+            case RoomHandler.SORT_CREATED:
+                sortItem = R.id.action_sort_created;
+                break;
+            case RoomHandler.SORT_NAME:
+                sortItem = R.id.action_sort_name;
+                break;
+            default:
+                sortItem = R.id.action_sort_modified;
+        }
+        menu.findItem(sortItem).setChecked(true);
+
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return onQueryTextChange(query);
+            }
+
+            @Override
+            public boolean onQueryTextChange(String query) {
+                if (!query.equals(searchQuery)) {
+                    searchQuery = query;
+                    loadSketches();
+                }
+                return true;
+            }
+        });
+        return true;
     }
 
-    private static class GetSketchCountAsyncTask extends AsyncTask<Void, Void, int[]> {
-        final private RecyclerView recyclerView;
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        getRoomHandler().removeOnSketchChangeListener(this);
+        if (batchExporter != null) {
+            batchExportDialog.dismiss();
+            batchExporter.setListener(null);
+            if (!isChangingConfigurations())
+                batchExporter.cancel();
+        }
+        // recycles the cards, which gives their thumbnails back to the pool
+        recyclerView.setAdapter(null);
+        thumbnailLoader.shutdown();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        ThumbnailCache thumbnailCache = ThumbnailCache.getInstance(this);
+        if (level >= TRIM_MEMORY_MODERATE)
+            thumbnailCache.trimMemory(0);
+        else if (level >= TRIM_MEMORY_RUNNING_LOW)
+            thumbnailCache.trimMemory(thumbnailCache.getMemoryMaxSize() / 2);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_sort_modified:
+                setSortOrder(RoomHandler.SORT_MODIFIED);
+                item.setChecked(true);
+                return true;
+            case R.id.action_sort_created:
+                setSortOrder(RoomHandler.SORT_CREATED);
+                item.setChecked(true);
+                return true;
+            case R.id.action_sort_name:
+                setSortOrder(RoomHandler.SORT_NAME);
+                item.setChecked(true);
+                return true;
+            case R.id.action_export_sketches:
+                if (actionMode == null) {
+                    actionMode = startSupportActionMode(selectionCallback);
+                    updateSelectionTitle();
+                }
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    private void setSortOrder(int sortOrder) {
+        if (sortOrder == this.sortOrder)
+            return;
+        this.sortOrder = sortOrder;
+        mSharedPreferences.edit().putInt(PREF_GALLERY_SORT, sortOrder).apply();
+        loadSketches();
+    }
+
+    private void updateSelectionTitle() {
+        if (actionMode != null)
+            actionMode.setTitle(getString(R.string.selection_count, adapter.getSelectionCount()));
+    }
+
+    private void chooseExportFormat() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.export_format)
+                .setItems(R.array.export_formats, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        exportFormat = which;
+                        chooseExportFile();
+                    }
+                })
+                .show();
+    }
+
+    private void chooseExportFile() {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        boolean pdf = exportFormat == BatchExporter.FORMAT_PDF;
+        intent.setType(pdf ? "application/pdf" : "application/zip");
+        intent.putExtra(Intent.EXTRA_TITLE, pdf ? "sketches.pdf" : "sketches.zip");
+        try {
+            startActivityForResult(intent, REQUEST_CREATE_EXPORT);
+        } catch (ActivityNotFoundException e) {
+            Toast.makeText(this, R.string.export_failed, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != REQUEST_CREATE_EXPORT || resultCode != RESULT_OK || data == null || data.getData() == null)
+            return;
+
+        int[] ids = adapter.getSelectedIds();
+        if (actionMode != null)
+            actionMode.finish();
+        if (ids.length == 0)
+            return;
+        BatchExporter exporter = new BatchExporter(getRoomHandler(), ids, exportFormat,
+                new UriDestination(getContentResolver(), data.getData()));
+        showBatchExport(exporter);
+        exporter.start();
+    }
+
+    /**
+     * Shows the progress of the given export until it finishes or is cancelled.
+     */
+    private void showBatchExport(final BatchExporter exporter) {
+        batchExporter = exporter;
+        batchExportDialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.batch_export_title)
+                .setView(R.layout.dialog_batch_export)
+                .setNegativeButton(R.string.dialog_cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        exporter.cancel();
+                    }
+                })
+                .setOnCancelListener(new DialogInterface.OnCancelListener() {
+                    @Override
+                    public void onCancel(DialogInterface dialog) {
+                        exporter.cancel();
+                    }
+                })
+                .show();
+        exporter.setListener(batchExportListener);
+    }
+
+    private void onBatchExportDone() {
+        batchExporter.setListener(null);
+        batchExporter = null;
+        batchExportDialog.dismiss();
+        batchExportDialog = null;
+    }
+
+    private static class LoadedSketches {
+        SketchInfo[] sketches;
+        DiffUtil.DiffResult diff;
+    }
+
+    private static class LoadSketchesTask implements Callable<LoadedSketches> {
         final private RoomHandler roomHandler;
+        final private SketchInfo[] oldSketches;
+        final private String searchQuery;
+        final private int sortOrder;
 
-        GetSketchCountAsyncTask(RoomHandler roomHandler, RecyclerView recyclerView) {
+        LoadSketchesTask(RoomHandler roomHandler, SketchInfo[] oldSketches, String searchQuery, int sortOrder) {
             this.roomHandler = roomHandler;
-            this.recyclerView = recyclerView;
+            this.oldSketches = oldSketches;
+            this.searchQuery = searchQuery;
+            this.sortOrder = sortOrder;
         }
 
         @Override
-        protected int[] doInBackground(Void... params) {
-            return this.roomHandler.getSketchIds();
+        public LoadedSketches call() {
+            LoadedSketches result = new LoadedSketches();
+            result.sketches = this.roomHandler.searchSketchInfos(searchQuery, sortOrder);
+            result.diff = DiffUtil.calculateDiff(new GalleryAdapter.SketchDiffCallback(oldSketches, result.sketches));
+            return result;
+        }
+    }
+
+    /**
+     * Reloads the metadata of the sketches matching the search query, in the selected order, in
+     * the background and applies the difference to the gallery. Requests made while a load is
+     * running are coalesced into one more load.
+     */
+    private void loadSketches() {
+        if (loadTask != null) {
+            reloadPending = true;
+            return;
         }
+        final SketchInfo[] oldSketches = adapter.getSketches();
+        loadTask = TaskScheduler.getInstance().submit(this, TaskScheduler.POOL_IO, TaskScheduler.PRIORITY_HIGH,
+                new LoadSketchesTask(getRoomHandler(), oldSketches, searchQuery, sortOrder),
+                new TaskScheduler.Callback<LoadedSketches>() {
+                    @Override
+                    public void onTaskFinished(LoadedSketches result) {
+                        onSketchesLoaded(oldSketches, result.sketches, result.diff);
+                    }
+
+                    @Override
+                    public void onTaskFailed(Throwable e) {
+                        Log.e("GalleryActivity", "Cannot load sketches", e);
+                        loadTask = null;
+                        reloadIfPending();
+                    }
+                });
+    }
 
-        @Override
-        protected void onPostExecute(int[] ids) {
-            RecyclerView.Adapter adapter = new GalleryAdapter(roomHandler, ids);
-            recyclerView.setAdapter(adapter);
+    private void onSketchesLoaded(SketchInfo[] oldSketches, SketchInfo[] newSketches, DiffUtil.DiffResult diff) {
+        loadTask = null;
+        // the diff is only valid against the data set it was computed from
+        if (adapter.getSketches() == oldSketches)
+            adapter.setSketches(newSketches, diff);
+        else
+            reloadPending = true;
+        reloadIfPending();
+    }
+
+    /**
+     * Starts the load that was requested while the previous one was running, whether that one
+     * succeeded or not, so no change is lost.
+     */
+    private void reloadIfPending() {
+        if (reloadPending) {
+            reloadPending = false;
+            loadSketches();
         }
     }
 
+    @Override
+    public void onSketchChanged(SketchChange change) {
+        if (change.id >= 0)
+            loadSketches();
+    }
+
     @Override
     protected void onStart() {
         super.onStart();
+        // queued on the database writer, the gallery does not wait for it
         getRoomHandler().deleteSketch(SketchActivity.TEMP_SKETCH_ID);
-        GetSketchCountAsyncTask asyncTask = new GetSketchCountAsyncTask(getRoomHandler(), recyclerView);
-        asyncTask.execute();
     }
 
     @Override
@@ -214,6 +752,10 @@ public class GalleryActivity extends BaseActivity implements View.OnLongClickLis
 
     @Override
     public boolean onLongClick(View v) {
+        if (actionMode != null) {
+            editSketch(v);
+            return true;
+        }
         deleteSketch(v);
         return true;
     }
@@ -229,7 +771,6 @@ public class GalleryActivity extends BaseActivity implements View.OnLongClickLis
 
             public void onClick(DialogInterface dialog, int id) {
                 getRoomHandler().deleteSketch(sketchId);
-                recreate();
             }
         });
         builder.setNegativeButton(R.string.dialog_cancel, null);
@@ -239,6 +780,11 @@ public class GalleryActivity extends BaseActivity implements View.OnLongClickLis
     }
 
     public void editSketch(View view) {
+        if (actionMode != null) {
+            adapter.toggleSelection(getSketchIdFromView(view));
+            updateSelectionTitle();
+            return;
+        }
         Intent intent = new Intent(this, SketchActivity.class);
         intent.putExtra("sketchId", getSketchIdFromView(view));
         startActivity(intent);
@@ -17,7 +17,6 @@
 package org.secuso.privacyfriendlysketching.activities;
 
 import android.content.Intent;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.security.KeyPairGeneratorSpec;
 import android.util.Log;
@@ -30,10 +29,10 @@ import org.secuso.privacyfriendlysketching.activities.helper.BaseActivity;
 import org.secuso.privacyfriendlysketching.R;
 import org.secuso.privacyfriendlysketching.database.SketchingRoomDB;
 import org.secuso.privacyfriendlysketching.helpers.EncryptionHelper;
+import org.secuso.privacyfriendlysketching.helpers.TaskScheduler;
 
 import java.io.IOException;
 import java.math.BigInteger;
-import java.net.URL;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -41,6 +40,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
 import java.util.Calendar;
+import java.util.concurrent.Callable;
 
 import javax.security.auth.x500.X500Principal;
 
@@ -70,28 +70,37 @@ public class KeyGenActivity extends BaseActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        keyGenClass keyGenClass = new keyGenClass();
-        keyGenClass.execute();
+        TaskScheduler.getInstance().submit(this, TaskScheduler.POOL_IO, TaskScheduler.PRIORITY_HIGH,
+                new keyGenClass(), new TaskScheduler.Callback<Long>() {
+                    @Override
+                    public void onTaskFinished(Long result) {
+                        Intent i = new Intent(KeyGenActivity.this, GalleryActivity.class);
+                        startActivity(i);
+                    }
+
+                    @Override
+                    public void onTaskFailed(Throwable e) {
+                        Log.e("KEYGEN_ACTIVITY", "key generation failed", e);
+                    }
+                });
     }
 
     /**
      *
      */
-    private class keyGenClass extends AsyncTask<URL, Integer, Long> {
-
-        @Override
-        protected void onPreExecute() {
-            super.onPreExecute();
-            TextView tv = findViewById(R.id.keyGenInfoText);
+    private class keyGenClass implements Callable<Long> {
 
+        private void publishProgress(final int value) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    onProgressUpdate(value);
+                }
+            });
         }
 
-
-        @Override
-        protected void onProgressUpdate(Integer... values) {
-            super.onProgressUpdate(values);
-
-            switch (values[0]) {
+        private void onProgressUpdate(int value) {
+            switch (value) {
                 case 0:
                     progressText.setText(getApplicationContext().getString(R.string.keygen_progresstext_1));
                     break;
@@ -104,7 +113,7 @@ public class KeyGenActivity extends BaseActivity {
         }
 
         @Override
-        protected Long doInBackground(URL... urls) {
+        public Long call() {
             Log.i("KEYGEN_ACTIVITY", "generating keys for later use..");
 
             //Generates a passphrase for the encrypted ROOM DB
@@ -164,13 +173,6 @@ public class KeyGenActivity extends BaseActivity {
 
             return new Long(0);
         }
-
-        @Override
-        protected void onPostExecute(Long aLong) {
-            super.onPostExecute(aLong);
-            Intent i = new Intent(KeyGenActivity.this, GalleryActivity.class);
-            startActivity(i);
-        }
     }
 }
 
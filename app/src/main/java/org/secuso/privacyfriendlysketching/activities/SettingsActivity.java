@@ -19,8 +19,10 @@ package org.secuso.privacyfriendlysketching.activities;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.res.Configuration;
+import android.graphics.Typeface;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.ListPreference;
@@ -28,10 +30,31 @@ import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
+import android.support.v7.app.AlertDialog;
+import android.util.Log;
 import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
 
+import com.divyanshu.draw.metrics.Histogram;
+
+import org.secuso.privacyfriendlysketching.BuildConfig;
 import org.secuso.privacyfriendlysketching.R;
 import org.secuso.privacyfriendlysketching.activities.helper.BaseActivity;
+import org.secuso.privacyfriendlysketching.database.RoomHandler;
+import org.secuso.privacyfriendlysketching.export.EncoderBenchmark;
+import org.secuso.privacyfriendlysketching.helpers.Metrics;
+import org.secuso.privacyfriendlysketching.helpers.TaskScheduler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * A {@link PreferenceActivity} that presents a set of application settings. On
@@ -185,6 +208,9 @@ public class SettingsActivity extends BaseActivity {
      */
     @TargetApi(Build.VERSION_CODES.HONEYCOMB)
     public static class GeneralPreferenceFragment extends PreferenceFragment {
+        private final static String PREF_ENCODER_BENCHMARK = "pref_encoder_benchmark";
+        private final static String PREF_APP_METRICS = "pref_app_metrics";
+
         @Override
         public void onCreate(Bundle savedInstanceState) {
             super.onCreate(savedInstanceState);
@@ -197,6 +223,127 @@ public class SettingsActivity extends BaseActivity {
             // guidelines.
             //bindPreferenceSummaryToValue(findPreference("example_text"));
             //bindPreferenceSummaryToValue(findPreference("example_list"));
+
+            findPreference(PREF_ENCODER_BENCHMARK).setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    runEncoderBenchmark(preference);
+                    return true;
+                }
+            });
+            findPreference(PREF_APP_METRICS).setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    showAppMetrics();
+                    return true;
+                }
+            });
+        }
+
+        private void showAppMetrics() {
+            StringBuilder message = new StringBuilder();
+            for (Histogram histogram : Metrics.getHistograms().values()) {
+                if (histogram.getCount() == 0)
+                    continue;
+                message.append(String.format(Locale.US, "%s\n  n=%d  p50 %.1f  p95 %.1f  p99 %.1f  max %.1f ms\n",
+                        histogram.getName(), histogram.getCount(),
+                        histogram.getPercentile(50) / 1000.0, histogram.getPercentile(95) / 1000.0,
+                        histogram.getPercentile(99) / 1000.0, histogram.getMax() / 1000.0));
+            }
+            for (Map.Entry<String, Long> counter : Metrics.getCounters().entrySet())
+                message.append(counter.getKey()).append(": ").append(counter.getValue()).append('\n');
+            for (TaskScheduler.Stats stats : TaskScheduler.getInstance().getStats())
+                message.append(stats).append('\n');
+
+            AlertDialog dialog = new AlertDialog.Builder(getActivity())
+                    .setTitle(R.string.pref_app_metrics)
+                    .setMessage(message.length() > 0 ? message.toString() : getString(R.string.app_metrics_empty))
+                    .setPositiveButton(R.string.app_metrics_save, new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            saveAppMetrics();
+                        }
+                    })
+                    .setNeutralButton(R.string.app_metrics_reset, new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            Metrics.reset();
+                        }
+                    })
+                    .setNegativeButton(R.string.dialog_cancel, null)
+                    .show();
+            TextView text = dialog.findViewById(android.R.id.message);
+            if (text != null)
+                text.setTypeface(Typeface.MONOSPACE);
+        }
+
+        private void saveAppMetrics() {
+            File dir = getActivity().getExternalFilesDir("metrics");
+            if (dir == null) {
+                Toast.makeText(getActivity(), R.string.metrics_export_failed, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            final File file = new File(dir, "app-metrics-" + System.currentTimeMillis() + ".csv");
+            final Context context = getActivity().getApplicationContext();
+            TaskScheduler.getInstance().submit(null, TaskScheduler.POOL_IO, TaskScheduler.PRIORITY_NORMAL, new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    file.getParentFile().mkdirs();
+                    try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+                        writer.write("# " + BuildConfig.APPLICATION_ID + " " + BuildConfig.VERSION_NAME + " (" + BuildConfig.BUILD_TYPE + "), "
+                                + Build.MANUFACTURER + " " + Build.MODEL + ", API " + Build.VERSION.SDK_INT + "\n");
+                        Metrics.writeCsv(writer);
+                    }
+                    return null;
+                }
+            }, new TaskScheduler.Callback<Void>() {
+                @Override
+                public void onTaskFinished(Void result) {
+                    Toast.makeText(context, context.getString(R.string.metrics_exported, file.getAbsolutePath()), Toast.LENGTH_LONG).show();
+                }
+
+                @Override
+                public void onTaskFailed(Throwable e) {
+                    Log.e("SettingsActivity", "Cannot save metrics", e);
+                    Toast.makeText(context, R.string.metrics_export_failed, Toast.LENGTH_SHORT).show();
+                }
+            });
+        }
+
+        private void runEncoderBenchmark(final Preference preference) {
+            preference.setEnabled(false);
+            new EncoderBenchmark(RoomHandler.getInstance(getActivity().getApplication())).start(new EncoderBenchmark.Listener() {
+                @Override
+                public void onBenchmarkProgress(int done, int total) {
+                    if (isAdded())
+                        preference.setSummary(getString(R.string.encoder_benchmark_progress, done, total));
+                }
+
+                @Override
+                public void onBenchmarkFinished(List<EncoderBenchmark.Result> results, int sketches) {
+                    if (!isAdded())
+                        return;
+                    preference.setEnabled(true);
+                    preference.setSummary(R.string.pref_encoder_benchmark_summary);
+
+                    AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+                    if (sketches == 0) {
+                        builder.setMessage(R.string.encoder_benchmark_empty);
+                    } else {
+                        StringBuilder message = new StringBuilder();
+                        for (EncoderBenchmark.Result result : results) {
+                            if (message.length() > 0)
+                                message.append('\n');
+                            message.append(getString(R.string.encoder_benchmark_result,
+                                    result.profile.toString(), result.getMillis(), result.bytes / 1024));
+                        }
+                        builder.setTitle(getString(R.string.encoder_benchmark_title, sketches));
+                        builder.setMessage(message);
+                    }
+                    builder.setPositiveButton(R.string.dialog_ok, null);
+                    builder.show();
+                }
+            });
         }
 
         @Override
@@ -19,15 +19,19 @@ package org.secuso.privacyfriendlysketching.activities;
 import android.Manifest;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
+import android.graphics.Color;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.preference.PreferenceManager;
 import android.provider.MediaStore;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
-import android.support.v4.content.FileProvider;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
@@ -43,28 +47,48 @@ import android.view.View;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.SeekBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import com.divyanshu.draw.metrics.DrawMetrics;
 import com.divyanshu.draw.widget.CircleView;
 import com.divyanshu.draw.widget.DrawView;
 import com.divyanshu.draw.widget.MyPath;
 import com.divyanshu.draw.widget.PaintOptions;
 
+import org.secuso.privacyfriendlysketching.BuildConfig;
 import org.secuso.privacyfriendlysketching.R;
 import org.secuso.privacyfriendlysketching.database.RoomHandler;
 import org.secuso.privacyfriendlysketching.database.Sketch;
+import org.secuso.privacyfriendlysketching.export.BandedPngEncoder;
+import org.secuso.privacyfriendlysketching.export.Destination;
+import org.secuso.privacyfriendlysketching.export.Encoder;
+import org.secuso.privacyfriendlysketching.export.EncoderProfile;
+import org.secuso.privacyfriendlysketching.export.FileDestination;
+import org.secuso.privacyfriendlysketching.export.MediaStoreDestination;
+import org.secuso.privacyfriendlysketching.export.SketchExporter;
+import org.secuso.privacyfriendlysketching.export.SketchImageEncoder;
+import org.secuso.privacyfriendlysketching.export.SvgEncoder;
+import org.secuso.privacyfriendlysketching.helpers.Metrics;
+import org.secuso.privacyfriendlysketching.helpers.ShareCache;
+import org.secuso.privacyfriendlysketching.helpers.TaskScheduler;
 import org.secuso.privacyfriendlysketching.helpers.Utility;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 enum ToolbarMode {
     None,
@@ -85,6 +109,18 @@ public class SketchActivity extends AppCompatActivity {
     static final int WRITE_PERMISSION_CODE = 2;
     private final static int SAVETYPE_GALLERY = 3;
     private final static int SAVETYPE_EXTERNAL = 4;
+    private final static int SAVETYPE_EXTERNAL_SVG = 5;
+    private final static int SAVETYPE_EXTERNAL_HIGH_RESOLUTION = 6;
+    /** Sizes of the longer image side offered for print exports, matching R.array.export_resolutions. */
+    private final static int[] HIGH_RESOLUTION_SIZES = {4000, 8000, 16000};
+    private final static int PRINT_DPI = 300;
+    /** Upper bound of the longer image side of gallery and JPEG exports. */
+    private final static int EXPORT_MAX_SIZE = 2048;
+    private final static int EXPORT_DEFAULT_SIZE = 1024;
+    private final static String PREF_TOUCH_PREDICTION = "pref_touch_prediction";
+    private final static String PREF_TILED_CANVAS = "pref_tiled_canvas";
+    private final static String PREF_PERFORMANCE_OVERLAY = "pref_performance_overlay";
+    private final static long OVERLAY_UPDATE_INTERVAL = 500;
 
     private boolean toolbarOpen = false;
     private ToolbarMode toolbarMode = ToolbarMode.None;
@@ -99,8 +135,30 @@ public class SketchActivity extends AppCompatActivity {
     private SeekBar seekBarWidth;
     private SeekBar seekBarOpacity;
 
+    private TextView performanceOverlay;
+    private ProgressBar exportProgress;
+    private int highResolutionSize = HIGH_RESOLUTION_SIZES[0];
+    private final Handler overlayHandler = new Handler();
+    private final Runnable overlayUpdater = new Runnable() {
+        @Override
+        public void run() {
+            updatePerformanceOverlay();
+            overlayHandler.postDelayed(this, OVERLAY_UPDATE_INTERVAL);
+        }
+    };
+
     private AlertDialog backgroundColorSelectDialog = null;
     private boolean writePermissionGranted = false;
+    /** The content version of the drawing when it was last loaded from or saved to the database. */
+    private int savedContentVersion = -1;
+    /** Set while the sketch is being loaded from the database. */
+    private TaskScheduler.Task<Sketch> loadTask;
+    /** Set while the sketch is being saved; a new sketch has no id before its insert is done. */
+    private TaskScheduler.Task<Integer> saveTask;
+    /** Set when a save was requested while another one was running. */
+    private boolean saveWhenSaved = false;
+    /** Set when the sketch is to be shared once it is saved. */
+    private boolean shareWhenSaved = false;
 
     private static int SAVETYPE;
 
@@ -118,19 +176,36 @@ public class SketchActivity extends AppCompatActivity {
     }
 
     private void updateSketchBeforeSave() {
+        this.sketch = snapshotSketch();
+    }
+
+    /**
+     * Returns a new sketch with the current drawing and the metadata of {@link #sketch}. It can
+     * be handed to another thread, as the activity does not change it afterwards.
+     */
+    private Sketch snapshotSketch() {
         String description;
         int sketchId;
+        int version;
+        long createdAt;
 
         if (sketch == null) {
             description = DateFormat.getDateInstance().format(new Date());
             sketchId = NEW_SKETCH_ID;
+            version = 0;
+            createdAt = System.currentTimeMillis();
         } else {
             description = sketch.description;
             sketchId = sketch.id;
+            version = sketch.version;
+            createdAt = sketch.createdAt;
         }
 
-        this.sketch = new Sketch(drawView.getPaintBackground(), drawView.getMPaths(), description);
-        sketch.setId(sketchId);
+        Sketch snapshot = new Sketch(drawView.getPaintBackground(), drawView.getMPaths(), description);
+        snapshot.setId(sketchId);
+        snapshot.setVersion(version);
+        snapshot.setCreatedAt(createdAt);
+        return snapshot;
     }
 
     @Override
@@ -143,9 +218,12 @@ public class SketchActivity extends AppCompatActivity {
             ab.setDisplayHomeAsUpEnabled(true);
 
         drawView = findViewById(R.id.draw_view);
+        drawView.setDrawTimeHistogram(Metrics.histogram("render.onDraw"));
         toolbar = findViewById(R.id.draw_tools);
 
         preview = findViewById(R.id.circle_view_preview);
+        performanceOverlay = findViewById(R.id.performance_overlay);
+        exportProgress = findViewById(R.id.export_progress);
 
         colorPalette = findViewById(R.id.draw_color_palette);
         seekBarWidth = findViewById(R.id.seekBar_width);
@@ -183,31 +261,84 @@ public class SketchActivity extends AppCompatActivity {
             }
         });
 
-        if (savedInstanceState != null) {
-            int sketchId = savedInstanceState.getInt("sketchId");
-            Sketch sketch = getRoomHandler().getSketch(TEMP_SKETCH_ID);
-            if (sketch != null) {
-                sketch.setId(sketchId);
-                initFromSketch(sketch);
-            }
-        }
+        if (savedInstanceState != null)
+            loadSketchCopy(savedInstanceState.getInt("sketchId"));
+        else
+            loadIntentSketch();
+    }
 
-        if (sketch == null) {
-            Bundle b = getIntent().getExtras();
-            if (b != null) {
-                int sketchId = b.getInt("sketchId", NEW_SKETCH_ID);
-                if (sketchId != NEW_SKETCH_ID) {
-                    Sketch sketch = getRoomHandler().getSketch(sketchId);
-                    initFromSketch(sketch);
+    private void loadIntentSketch() {
+        Bundle b = getIntent().getExtras();
+        int sketchId = b != null ? b.getInt("sketchId", NEW_SKETCH_ID) : NEW_SKETCH_ID;
+        if (sketchId != NEW_SKETCH_ID)
+            loadSketch(sketchId);
+        else
+            initNewSketch();
+    }
+
+    /**
+     * Loads a stored sketch in the background. The canvas is hidden and nothing is saved until
+     * the sketch has arrived.
+     */
+    private void loadSketch(final int sketchId) {
+        drawView.setVisibility(View.INVISIBLE);
+        loadTask = getRoomHandler().getSketch(this, sketchId, new TaskScheduler.Callback<Sketch>() {
+            @Override
+            public void onTaskFinished(Sketch loaded) {
+                loadTask = null;
+                drawView.setVisibility(View.VISIBLE);
+                if (loaded == null) {
+                    initNewSketch();
+                    return;
                 }
+                initFromSketch(loaded);
+                savedContentVersion = drawView.getContentVersion();
             }
-        }
 
-        if (sketch == null) {
-            String description = DateFormat.getDateInstance().format(new Date());
-            sketch = new Sketch(null, drawView.getMPaths(), description);
-            sketch.setId(NEW_SKETCH_ID);
-        }
+            @Override
+            public void onTaskFailed(Throwable e) {
+                Log.e("SKETCH_ACTIVITY", "Cannot load sketch " + sketchId, e);
+                loadTask = null;
+                drawView.setVisibility(View.VISIBLE);
+                initNewSketch();
+            }
+        });
+    }
+
+    /**
+     * Loads the temporary copy kept across configuration changes like {@link #loadSketch(int)},
+     * as the sketch with the id {@code sketchId}. The copy counts as unsaved.
+     */
+    private void loadSketchCopy(final int sketchId) {
+        drawView.setVisibility(View.INVISIBLE);
+        loadTask = getRoomHandler().getSketchCopy(this, TEMP_SKETCH_ID, sketchId, new TaskScheduler.Callback<Sketch>() {
+            @Override
+            public void onTaskFinished(Sketch loaded) {
+                loadTask = null;
+                drawView.setVisibility(View.VISIBLE);
+                // without a temporary copy, open the sketch the activity was started for
+                if (loaded == null)
+                    loadIntentSketch();
+                else
+                    initFromSketch(loaded);
+            }
+
+            @Override
+            public void onTaskFailed(Throwable e) {
+                Log.e("SKETCH_ACTIVITY", "Cannot load the copy of sketch " + sketchId, e);
+                loadTask = null;
+                drawView.setVisibility(View.VISIBLE);
+                initNewSketch();
+            }
+        });
+    }
+
+    private void initNewSketch() {
+        String description = DateFormat.getDateInstance().format(new Date());
+        sketch = new Sketch(null, drawView.getMPaths(), description);
+        sketch.setId(NEW_SKETCH_ID);
+        // identifies the sketch while its first insert is queued, see onSaveInstanceState
+        sketch.setCreatedAt(System.currentTimeMillis());
     }
 
     @Override
@@ -217,14 +348,26 @@ public class SketchActivity extends AppCompatActivity {
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_export_metrics).setVisible(drawView.getMetrics().isEnabled());
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        // the sketch actions need the sketch, navigation does not
+        if (loadTask != null && item.getItemId() != android.R.id.home)
+            return true;
         switch (item.getItemId()) {
             case R.id.action_select_background:
                 showSelectBackgroundDialog();
                 return true;
             case R.id.action_clear_background:
-                drawView.setBackground((Bitmap) null);
+                drawView.changeBackground(null);
+                return true;
+            case R.id.action_clear_sketch:
+                clearCanvasDialogue();
                 return true;
             case R.id.action_export_sketch:
                 showExportDialog();
@@ -235,27 +378,111 @@ public class SketchActivity extends AppCompatActivity {
             case R.id.action_share_sketch:
                 onShare();
                 return true;
+            case R.id.action_export_metrics:
+                exportMetrics();
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+        drawView.setPredictionEnabled(preferences.getBoolean(PREF_TOUCH_PREDICTION, false));
+        drawView.setTiledMode(preferences.getBoolean(PREF_TILED_CANVAS, false));
+
+        boolean showOverlay = preferences.getBoolean(PREF_PERFORMANCE_OVERLAY, false);
+        drawView.getMetrics().setEnabled(showOverlay);
+        performanceOverlay.setVisibility(showOverlay ? View.VISIBLE : View.GONE);
+        if (showOverlay)
+            overlayHandler.post(overlayUpdater);
+        invalidateOptionsMenu();
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
+        overlayHandler.removeCallbacks(overlayUpdater);
 
-        if (drawView.getMPaths().size() == 0)
+        if (loadTask != null || drawView.getMPaths().size() == 0)
             return;
 
-        updateSketchBeforeSave();
-        if (sketch.id != NEW_SKETCH_ID)
-            getRoomHandler().updateSketch(sketch);
-        else {
-            sketch.id = 0; // use auto increment
-            sketch.id = getRoomHandler().insertSketch(sketch);
+        // an unchanged sketch keeps its version, so caches derived from it stay valid
+        if (drawView.getContentVersion() != savedContentVersion)
+            saveSketch();
+    }
+
+    /**
+     * Saves the sketch on the database writer without waiting for it. Only one save runs at a
+     * time: a new sketch gets its id when the insert is done, which the next save needs.
+     */
+    private void saveSketch() {
+        if (saveTask != null) {
+            saveWhenSaved = true;
+            return;
+        }
+
+        final Sketch saved = snapshotSketch();
+        final boolean isNew = saved.id == NEW_SKETCH_ID;
+        TaskScheduler.Callback<Integer> callback = new TaskScheduler.Callback<Integer>() {
+            @Override
+            public void onTaskFinished(Integer result) {
+                saveTask = null;
+                if (isNew)
+                    sketch.id = result;
+                else
+                    sketch.version = result;
+                saved.id = sketch.id;
+                saved.version = sketch.version;
+                onSketchSaved(saved);
+            }
+
+            @Override
+            public void onTaskFailed(Throwable e) {
+                Log.e("SKETCH_ACTIVITY", "Cannot save sketch " + saved.id, e);
+                saveTask = null;
+                // saved again at the next pause
+                savedContentVersion = -1;
+                shareWhenSaved = false;
+                onSketchSaved(null);
+            }
+        };
+
+        savedContentVersion = drawView.getContentVersion();
+        if (isNew) {
+            saved.id = 0; // use auto increment
+            saveTask = getRoomHandler().insertSketch(saved, callback);
+        } else {
+            saveTask = getRoomHandler().updateSketch(saved, callback);
+        }
+    }
+
+    /**
+     * Runs what waited for a save: the changes made meanwhile are saved, and the sketch is
+     * shared once the last of these saves is done.
+     */
+    private void onSketchSaved(Sketch saved) {
+        if (saveWhenSaved) {
+            saveWhenSaved = false;
+            if (drawView.getContentVersion() != savedContentVersion)
+                saveSketch();
+        }
+        if (shareWhenSaved && saveTask == null) {
+            shareWhenSaved = false;
+            if (!isFinishing() && !isDestroyed())
+                share(saved);
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW)
+            drawView.releaseOffscreenPaths();
+    }
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -263,12 +490,12 @@ public class SketchActivity extends AppCompatActivity {
         if (drawView.getMPaths().size() == 0)
             return;
 
-        updateSketchBeforeSave();
-        int sketchId = sketch.id;
-        outState.putInt("sketchId", sketchId);
-        sketch.setId(TEMP_SKETCH_ID);
-        getRoomHandler().insertSketch(sketch);
-        sketch.setId(sketchId);
+        // while the insert of a new sketch is queued, the id is not known yet, and the
+        // restored activity finds the sketch by its creation time
+        outState.putInt("sketchId", sketch.id);
+        Sketch copy = snapshotSketch();
+        copy.setId(TEMP_SKETCH_ID);
+        getRoomHandler().insertSketch(copy, null);
     }
 
     private void showSelectBackgroundDialog() {
@@ -314,6 +541,8 @@ public class SketchActivity extends AppCompatActivity {
             @Override
             public void onClick(DialogInterface dialogInterface, int i) {
                 sketch.description = input.getText().toString();
+                // the content is unchanged, but the new name still has to be saved
+                savedContentVersion = -1;
             }
         });
         renameBuilder.setNegativeButton(R.string.dialog_cancel, new DialogInterface.OnClickListener() {
@@ -331,7 +560,9 @@ public class SketchActivity extends AppCompatActivity {
         saveDialogBuilder.setTitle(R.string.export_where);
         saveDialogBuilder.setItems(new String[]{
                 getResources().getString(R.string.export_into_gallery),
-                getResources().getString(R.string.export_into_external)
+                getResources().getString(R.string.export_into_external),
+                getResources().getString(R.string.export_svg_into_external),
+                getResources().getString(R.string.export_high_resolution_into_external)
         }, new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialogInterface, int i) {
@@ -359,6 +590,20 @@ public class SketchActivity extends AppCompatActivity {
                             saveSketchIntoExternal();
                         }
                         break;
+                    case 2: //export as SVG to external storage
+                        if (ContextCompat.checkSelfPermission(SketchActivity.this, Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
+                            setSAVETYPE(SAVETYPE_EXTERNAL_SVG);
+                            ActivityCompat.requestPermissions(SketchActivity.this, new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE}, WRITE_PERMISSION_CODE);
+                        } else {
+                            setWritePermissionGranted(true);
+                        }
+                        if (writePermissionGranted) {
+                            saveSketchAsSvgIntoExternal();
+                        }
+                        break;
+                    case 3: //export in print resolution to external storage
+                        showHighResolutionDialog();
+                        break;
                 }
             }
 
@@ -368,30 +613,108 @@ public class SketchActivity extends AppCompatActivity {
         saveDialog.show();
     }
 
-    private void onShare() {
-        File cachePath = new File(getApplicationContext().getCacheDir(), "images");
-        cachePath.mkdirs();
-        try {
-            FileOutputStream fos = new FileOutputStream(cachePath + "/sketch.png");
-            drawView.getBitmap().compress(Bitmap.CompressFormat.PNG, 100, fos);
-            fos.close();
-
-            File imageFile = new File(cachePath, "sketch.png");
-            Uri contentUri = FileProvider.getUriForFile(getApplicationContext(), "org.secuso.privacyfriendlysketches.fileprovider", imageFile);
-
-            if (contentUri != null) {
-                Intent intent = new Intent();
-                intent.setAction(Intent.ACTION_SEND);
-                intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                intent.setDataAndType(contentUri, getContentResolver().getType(contentUri));
-                intent.putExtra(Intent.EXTRA_STREAM, contentUri);
-                startActivity(Intent.createChooser(intent, getString(R.string.action_share_sketch)));
+    private void showHighResolutionDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(SketchActivity.this);
+        builder.setTitle(R.string.export_resolution);
+        builder.setItems(R.array.export_resolutions, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                highResolutionSize = HIGH_RESOLUTION_SIZES[i];
+                if (ContextCompat.checkSelfPermission(SketchActivity.this, Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
+                    setSAVETYPE(SAVETYPE_EXTERNAL_HIGH_RESOLUTION);
+                    ActivityCompat.requestPermissions(SketchActivity.this, new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE}, WRITE_PERMISSION_CODE);
+                } else {
+                    setWritePermissionGranted(true);
+                }
+                if (writePermissionGranted) {
+                    saveSketchInHighResolutionIntoExternal();
+                }
             }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+        });
+        builder.show();
+    }
+
+    /**
+     * Shares the image of the saved sketch. Unsaved changes are saved first, which the pause
+     * caused by the chooser would do anyway, so the image can be cached by id and version. The
+     * chooser opens once the id and version of the save are known.
+     */
+    private void onShare() {
+        if (drawView.getMPaths().size() == 0)
+            return;
+        if (drawView.getContentVersion() != savedContentVersion)
+            saveSketch();
+        if (saveTask != null)
+            shareWhenSaved = true;
+        else
+            share(snapshotSketch());
+    }
+
+    private void share(Sketch saved) {
+        Uri contentUri = ShareCache.getInstance(this).share(saved);
+        Intent intent = new Intent();
+        intent.setAction(Intent.ACTION_SEND);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        intent.setDataAndType(contentUri, getContentResolver().getType(contentUri));
+        intent.putExtra(Intent.EXTRA_STREAM, contentUri);
+        startActivity(Intent.createChooser(intent, getString(R.string.action_share_sketch)));
+    }
+
+    private void updatePerformanceOverlay() {
+        DrawMetrics metrics = drawView.getMetrics();
+        metrics.sampleAllocations();
+        performanceOverlay.setText(String.format(Locale.US,
+                "frame   p50 %5.1f  p95 %5.1f  max %5.1f ms\n" +
+                "input   p50 %5.1f  p95 %5.1f  max %5.1f ms\n" +
+                "paths   %d (%d drawn, %d native)\n" +
+                "points  %d\n" +
+                "alloc   %d KB/s\n" +
+                "predict %.1f px mean error",
+                metrics.getFrameTime().getPercentile(50) / 1000f,
+                metrics.getFrameTime().getPercentile(95) / 1000f,
+                metrics.getFrameTime().getMax() / 1000f,
+                metrics.getInputLatency().getPercentile(50) / 1000f,
+                metrics.getInputLatency().getPercentile(95) / 1000f,
+                metrics.getInputLatency().getMax() / 1000f,
+                metrics.getPathCount(), metrics.getDrawnPathCount(), metrics.getMaterializedPathCount(),
+                metrics.getPointCount(),
+                metrics.getAllocationRate() / 1024,
+                metrics.getPredictionError()));
+    }
+
+    private void exportMetrics() {
+        File dir = getExternalFilesDir("metrics");
+        if (dir == null) {
+            Toast.makeText(this, R.string.metrics_export_failed, Toast.LENGTH_SHORT).show();
+            return;
         }
+        final File file = new File(dir, "draw-metrics-" + System.currentTimeMillis() + ".csv");
+        // the metrics change while drawing, so they are copied on the UI thread
+        final StringWriter csv = new StringWriter();
+        csv.write("# " + BuildConfig.APPLICATION_ID + " " + BuildConfig.VERSION_NAME + " (" + BuildConfig.BUILD_TYPE + "), "
+                + Build.MANUFACTURER + " " + Build.MODEL + ", API " + Build.VERSION.SDK_INT + "\n");
+        drawView.getMetrics().writeCsv(csv);
+        TaskScheduler.getInstance().submit(this, TaskScheduler.POOL_IO, TaskScheduler.PRIORITY_NORMAL, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                file.getParentFile().mkdirs();
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+                    writer.write(csv.toString());
+                }
+                return null;
+            }
+        }, new TaskScheduler.Callback<Void>() {
+            @Override
+            public void onTaskFinished(Void result) {
+                Toast.makeText(SketchActivity.this, getString(R.string.metrics_exported, file.getAbsolutePath()), Toast.LENGTH_LONG).show();
+            }
+
+            @Override
+            public void onTaskFailed(Throwable e) {
+                Log.e("SKETCH_ACTIVITY", "Cannot export metrics", e);
+                Toast.makeText(SketchActivity.this, R.string.metrics_export_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     public void onClick(View view) {
@@ -399,7 +722,7 @@ public class SketchActivity extends AppCompatActivity {
 
         switch (view.getId()) {
             case R.id.image_draw_eraser:
-                clearCanvasDialogue();
+                setEraserEnabled(!drawView.isEraserEnabled());
                 break;
             case R.id.image_draw_width:
                 toolbarMode = ToolbarMode.Width;
@@ -428,6 +751,12 @@ public class SketchActivity extends AppCompatActivity {
         }
     }
 
+    private void setEraserEnabled(boolean enabled) {
+        drawView.setEraserEnabled(enabled);
+        findViewById(R.id.image_draw_eraser).setBackgroundColor(
+                enabled ? getResources().getColor(R.color.middlegrey) : Color.TRANSPARENT);
+    }
+
     private void clearCanvasDialogue() {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
 
@@ -483,7 +812,7 @@ public class SketchActivity extends AppCompatActivity {
         if (colorId != 0) {
             Bitmap b = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
             b.eraseColor(getResources().getColor(colorId));
-            drawView.setBackground(b);
+            drawView.changeBackground(b);
             if (this.backgroundColorSelectDialog != null) {
                 this.backgroundColorSelectDialog.dismiss();
             }
@@ -497,7 +826,7 @@ public class SketchActivity extends AppCompatActivity {
             Uri imageUri = data.getData();
             try {
                 Bitmap bmp = MediaStore.Images.Media.getBitmap(this.getContentResolver(), imageUri);
-                this.drawView.setBackground(bmp);
+                this.drawView.changeBackground(bmp);
             } catch (IOException e) {
                 Toast.makeText(this, R.string.error_loading_image, Toast.LENGTH_SHORT).show();
             }
@@ -533,6 +862,7 @@ public class SketchActivity extends AppCompatActivity {
         }
 
         if (colorId != 0) {
+            setEraserEnabled(false);
             changeColorFocus(this.focusedColor, toFocusedColor);
             this.focusedColor = toFocusedColor;
             drawView.setColor(getResources().getColor(colorId));
@@ -604,6 +934,22 @@ public class SketchActivity extends AppCompatActivity {
                             Toast.makeText(SketchActivity.this, R.string.permission_error, Toast.LENGTH_SHORT).show();
                         }
                         break;
+                    case SAVETYPE_EXTERNAL_SVG:
+                        if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                            this.writePermissionGranted = true;
+                            saveSketchAsSvgIntoExternal();
+                        } else if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_DENIED) {
+                            Toast.makeText(SketchActivity.this, R.string.permission_error, Toast.LENGTH_SHORT).show();
+                        }
+                        break;
+                    case SAVETYPE_EXTERNAL_HIGH_RESOLUTION:
+                        if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                            this.writePermissionGranted = true;
+                            saveSketchInHighResolutionIntoExternal();
+                        } else if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_DENIED) {
+                            Toast.makeText(SketchActivity.this, R.string.permission_error, Toast.LENGTH_SHORT).show();
+                        }
+                        break;
                 }
 
                 break;
@@ -619,41 +965,88 @@ public class SketchActivity extends AppCompatActivity {
     }
 
     public void saveSketchIntoGallery() {
-        Bitmap bmp = drawView.getBitmap();
+        // the snapshot is rendered and encoded on the export thread
         updateSketchBeforeSave();
-        MediaStore.Images.Media.insertImage(getContentResolver(), bmp, sketch.getDescription(), null);
-        Toast.makeText(SketchActivity.this, R.string.sketch_saved, Toast.LENGTH_SHORT).show();
+        Encoder encoder = new SketchImageEncoder(sketch, EncoderProfile.GALLERY, EXPORT_MAX_SIZE, EXPORT_DEFAULT_SIZE);
+        startExport(encoder, new MediaStoreDestination(getContentResolver(), sketch.getDescription(), encoder.getMimeType()));
     }
 
     public void saveSketchIntoExternal() {
         if (Utility.isExternalStorageWritable()) {
             String root = Environment.getExternalStorageDirectory().toString();
-            OutputStream os;
             File dir = new File(root + "/Sketches");
-            dir.mkdirs();
-            File f = new File(dir, sketch.getDescription() + ".jpg");
-            Bitmap bmp = drawView.getBitmap();
-            if (f.exists()) {
-                f.delete();
-            }
+            updateSketchBeforeSave();
+            Encoder encoder = new SketchImageEncoder(sketch, EncoderProfile.EXPORT_JPEG, EXPORT_MAX_SIZE, EXPORT_DEFAULT_SIZE);
+            File f = new File(dir, sketch.getDescription() + "." + encoder.getExtension());
+            startExport(encoder, new FileDestination(this, f, encoder.getMimeType()));
+        } else {
+            Log.i("SKETCH_ACTIVITY", "external NOT writable");
+        }
+    }
 
-            try {
-                os = new FileOutputStream(f);
-                bmp.compress(Bitmap.CompressFormat.JPEG, 100, os);
-                os.flush();
-                os.close();
+    public void saveSketchAsSvgIntoExternal() {
+        if (Utility.isExternalStorageWritable()) {
+            String root = Environment.getExternalStorageDirectory().toString();
+            File dir = new File(root + "/Sketches");
+            // the snapshot keeps the strokes serialized, so they are read on the export thread
+            updateSketchBeforeSave();
+            SvgEncoder encoder = new SvgEncoder(sketch);
+            File f = new File(dir, sketch.getDescription() + "." + encoder.getExtension());
+            startExport(encoder, new FileDestination(this, f, encoder.getMimeType()));
+        } else {
+            Log.i("SKETCH_ACTIVITY", "external NOT writable");
+        }
+    }
 
-                MediaStore.Images.Media.insertImage(getContentResolver(), f.getAbsolutePath(), f.getName(), f.getName());
-                Toast.makeText(SketchActivity.this, R.string.sketch_saved, Toast.LENGTH_SHORT).show();
-            } catch (FileNotFoundException e) {
-                Toast.makeText(SketchActivity.this, "FILE NOT FOUND ERROR", Toast.LENGTH_SHORT).show();
-            } catch (IOException e) {
-                Toast.makeText(SketchActivity.this, "IO EXCEPTION", Toast.LENGTH_SHORT).show();
-            }
+    /**
+     * Exports the sketch as PNG at the selected print resolution. The image is rendered band by
+     * band on the export thread and never exists as a whole in memory.
+     */
+    public void saveSketchInHighResolutionIntoExternal() {
+        if (Utility.isExternalStorageWritable()) {
+            String root = Environment.getExternalStorageDirectory().toString();
+            File dir = new File(root + "/Sketches");
+            updateSketchBeforeSave();
+            BandedPngEncoder encoder = new BandedPngEncoder(sketch, highResolutionSize, PRINT_DPI);
+            File f = new File(dir, sketch.getDescription() + "_" + highResolutionSize + "." + encoder.getExtension());
+            startExport(encoder, new FileDestination(this, f, encoder.getMimeType()));
         } else {
             Log.i("SKETCH_ACTIVITY", "external NOT writable");
         }
     }
 
-}
+    /**
+     * Encodes and writes an export in the background, showing its progress below the app bar.
+     */
+    private void startExport(Encoder encoder, Destination destination) {
+        exportProgress.setIndeterminate(true);
+        exportProgress.setVisibility(View.VISIBLE);
+        SketchExporter.getInstance().export(encoder, destination, new SketchExporter.Listener() {
+            @Override
+            public void onExportProgress(int percent) {
+                if (isDestroyed())
+                    return;
+                exportProgress.setIndeterminate(percent < 0);
+                if (percent >= 0)
+                    exportProgress.setProgress(percent);
+            }
 
+            @Override
+            public void onExportFinished(String location) {
+                if (isDestroyed())
+                    return;
+                exportProgress.setVisibility(View.GONE);
+                Toast.makeText(SketchActivity.this, R.string.sketch_saved, Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onExportFailed(IOException e) {
+                if (isDestroyed())
+                    return;
+                exportProgress.setVisibility(View.GONE);
+                Toast.makeText(SketchActivity.this, R.string.export_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.database;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.util.Log;
+
+import com.divyanshu.draw.widget.MyPath;
+import com.divyanshu.draw.widget.PaintOptions;
+
+import org.secuso.privacyfriendlysketching.R;
+import org.secuso.privacyfriendlysketching.helpers.SketchRenderer;
+import org.secuso.privacyfriendlysketching.helpers.TaskScheduler;
+import org.secuso.privacyfriendlysketching.helpers.ThumbnailCache;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Regenerates the data derived from sketches, i.e. the gallery thumbnail and the
+ * {@link SketchStats}, at low priority on the CPU pool after they were saved.
+ *
+ * Requests are persisted in the sketch_job table, so they survive the process, and coalesced per
+ * sketch. A job is done for the current version of its sketch; versions that were already
+ * processed are skipped.
+ */
+
+class DerivedDataWorker {
+    private final static String TAG = "DerivedDataWorker";
+
+    private final SketchDAO sketchDAO;
+    private final ThumbnailCache thumbnailCache;
+    private final int thumbnailSize;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    // serial, so two drains never pick up the same job
+    private final Executor executor = TaskScheduler.getInstance()
+            .newSerialExecutor(TaskScheduler.POOL_CPU, TaskScheduler.PRIORITY_LOW);
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            SketchJob job;
+            while ((job = sketchDAO.getNextJob()) != null)
+                process(job);
+        }
+    };
+
+    DerivedDataWorker(Context context, SketchDAO sketchDAO, ThumbnailCache thumbnailCache) {
+        this.sketchDAO = sketchDAO;
+        this.thumbnailCache = thumbnailCache;
+        this.thumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.gallery_entry_size);
+    }
+
+    /**
+     * Persists a request for the given sketch version and wakes the worker. Has to be called from
+     * a background thread.
+     */
+    void enqueue(int sketchId, int version) {
+        sketchDAO.enqueueJob(new SketchJob(sketchId, version, System.currentTimeMillis()));
+        schedule();
+    }
+
+    /**
+     * Processes the pending jobs, including those left over by an earlier process.
+     */
+    void schedule() {
+        if (scheduled.compareAndSet(false, true))
+            executor.execute(drain);
+    }
+
+    private void process(SketchJob job) {
+        int id = job.sketchId;
+        try {
+            Sketch sketch = sketchDAO.getSketchById(id);
+            if (sketch == null) {
+                sketchDAO.deleteJobs(id);
+                sketchDAO.deleteStats(id);
+                return;
+            }
+            SketchStats old = sketchDAO.getStats(id);
+            if (old == null || old.version < sketch.version) {
+                LinkedHashMap<MyPath, PaintOptions> paths = sketch.getPaths();
+                sketchDAO.insertStats(computeStats(sketch, paths));
+                if (!thumbnailCache.contains(id, sketch.version, thumbnailSize)) {
+                    Bitmap thumbnail = thumbnailCache.getBitmapPool().get(thumbnailSize, thumbnailSize, Bitmap.Config.RGB_565);
+                    SketchRenderer.render(thumbnail, sketch.getBitmap(), paths);
+                    thumbnailCache.put(id, sketch.version, thumbnailSize, thumbnail);
+                    thumbnailCache.release(thumbnail);
+                }
+            }
+            sketchDAO.deleteJob(id, sketch.version);
+        } catch (RuntimeException e) {
+            // a job that cannot be processed must not block the queue
+            Log.e(TAG, String.format("Cannot process sketch id=%d", id), e);
+            sketchDAO.deleteJobs(id);
+        }
+    }
+
+    private static SketchStats computeStats(Sketch sketch, LinkedHashMap<MyPath, PaintOptions> paths) {
+        SketchStats stats = new SketchStats();
+        stats.sketchId = sketch.id;
+        stats.version = sketch.version;
+        if (paths != null) {
+            stats.strokeCount = paths.size();
+            for (MyPath path : paths.keySet())
+                stats.pointCount += path.getPointCount();
+        }
+        RectF bounds = new RectF();
+        SketchRenderer.computeBounds(paths, bounds);
+        stats.boundsLeft = bounds.left;
+        stats.boundsTop = bounds.top;
+        stats.boundsRight = bounds.right;
+        stats.boundsBottom = bounds.bottom;
+        return stats;
+    }
+}
@@ -17,21 +17,60 @@
 package org.secuso.privacyfriendlysketching.database;
 
 import android.app.Application;
-import android.os.AsyncTask;
+import android.arch.lifecycle.LifecycleOwner;
+import android.arch.persistence.db.SimpleSQLiteQuery;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
-import java.util.concurrent.ExecutionException;
+import org.secuso.privacyfriendlysketching.helpers.ShareCache;
+import org.secuso.privacyfriendlysketching.helpers.TaskScheduler;
+import org.secuso.privacyfriendlysketching.helpers.ThumbnailCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class handles ROOM queries to the database.
  */
 
 public class RoomHandler {
+    public interface OnSketchChangeListener {
+        /**
+         * Called on the UI thread after a sketch was inserted, updated or deleted.
+         */
+        void onSketchChanged(SketchChange change);
+    }
+
+    public final static int SORT_MODIFIED = 0;
+    public final static int SORT_CREATED = 1;
+    public final static int SORT_NAME = 2;
+
+    private final static int PAGE_SIZE = 500;
+
+    private interface PageQuery {
+        SketchInfo[] load(int limit, int offset);
+    }
+
     private static RoomHandler instance;
+    private SketchingRoomDB db;
     private SketchDAO sketchDAO;
+    private ThumbnailCache thumbnailCache;
+    private ShareCache shareCache;
+    private DerivedDataWorker derivedDataWorker;
+    private final CopyOnWriteArrayList<OnSketchChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final TaskScheduler scheduler = TaskScheduler.getInstance();
 
     private RoomHandler(Application application) {
-        SketchingRoomDB db = SketchingRoomDB.getDatabase(application);
-        this.sketchDAO = db.sketchDao();
+        this.db = SketchingRoomDB.getDatabase(application);
+        this.sketchDAO = new TimedSketchDAO(db.sketchDao());
+        this.thumbnailCache = ThumbnailCache.getInstance(application);
+        this.shareCache = ShareCache.getInstance(application);
+        this.derivedDataWorker = new DerivedDataWorker(application, sketchDAO, thumbnailCache);
+        this.derivedDataWorker.schedule();
     }
 
     public static RoomHandler getInstance(Application application) {
@@ -40,32 +79,40 @@ public class RoomHandler {
         return instance;
     }
 
-    public int insertSketch(Sketch... sketches) {
-
-        InsertAsyncTask iat = new InsertAsyncTask(this.sketchDAO);
-        try {
-            return iat.execute(sketches).get().intValue();
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    public void addOnSketchChangeListener(OnSketchChangeListener listener) {
+        listeners.add(listener);
+    }
 
-        return -1;
+    public void removeOnSketchChangeListener(OnSketchChangeListener listener) {
+        listeners.remove(listener);
     }
 
-    //TODO
-    public Sketch[] getAllSketches() {
+    private void publish(final SketchChange change) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnSketchChangeListener listener : listeners)
+                    listener.onSketchChanged(change);
+            }
+        });
+    }
 
-        GetAllAsyncTask gaat = new GetAllAsyncTask(sketchDAO);
-        try {
-            return gaat.execute().get();
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        return null;
+    /**
+     * Inserts a sketch on the database writer without waiting for it and delivers its id to the
+     * callback, if one is given. Until then the sketch has no id, but writes queued later, e.g.
+     * an update of the same sketch, run after the insert. The insert is not bound to a lifecycle,
+     * so it completes when the editor that started it is closed.
+     */
+    public TaskScheduler.Task<Integer> insertSketch(final Sketch sketch, TaskScheduler.Callback<Integer> callback) {
+        final InsertTask task = new InsertTask(sketchDAO, thumbnailCache, derivedDataWorker, sketch);
+        return scheduler.submit(null, TaskScheduler.POOL_DB_WRITE, TaskScheduler.PRIORITY_HIGH, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                int id = task.call().intValue();
+                publish(new SketchChange(SketchChange.INSERTED, id, sketch.version));
+                return id;
+            }
+        }, callback);
     }
 
     public int getSketchCount() {
@@ -76,121 +123,280 @@ public class RoomHandler {
         return sketchDAO.getSketchIds();
     }
 
-    public Sketch getSketchSync(int id) {
-        return this.sketchDAO.getSketchById(id);
+    /**
+     * Returns the metadata of all sketches in the given sort order. Has to be called from a
+     * background thread.
+     */
+    public SketchInfo[] getSketchInfos(final int sortOrder) {
+        return loadPages(new PageQuery() {
+            @Override
+            public SketchInfo[] load(int limit, int offset) {
+                switch (sortOrder) {
+                    case SORT_CREATED:
+                        return sketchDAO.getSketchInfosByCreated(limit, offset);
+                    case SORT_NAME:
+                        return sketchDAO.getSketchInfosByName(limit, offset);
+                    default:
+                        return sketchDAO.getSketchInfosByModified(limit, offset);
+                }
+            }
+        });
     }
 
-    public Sketch getSketch(int id) {
+    /**
+     * Returns the sketches whose description contains words starting with every word of the
+     * given text, in the given sort order. Has to be called from a background thread.
+     */
+    public SketchInfo[] searchSketchInfos(String text, int sortOrder) {
+        final String match = toMatchExpression(text);
+        if (match.isEmpty())
+            return getSketchInfos(sortOrder);
+
+        final String sql = "SELECT sketch.id, sketch.version, sketch.description FROM sketch_fts "
+                + "JOIN sketch ON sketch.id = sketch_fts.docid "
+                + "WHERE sketch_fts MATCH ? AND sketch.id >= 0 ORDER BY " + toOrderBy(sortOrder)
+                + " LIMIT ? OFFSET ?";
+        return loadPages(new PageQuery() {
+            @Override
+            public SketchInfo[] load(int limit, int offset) {
+                return sketchDAO.searchSketchInfos(new SimpleSQLiteQuery(sql, new Object[]{match, limit, offset}));
+            }
+        });
+    }
 
-        GetAsyncTask gat = new GetAsyncTask(sketchDAO);
-        try {
-            return gat.execute(id).get();
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    private static String toOrderBy(int sortOrder) {
+        switch (sortOrder) {
+            case SORT_CREATED:
+                return "sketch.created_at DESC";
+            case SORT_NAME:
+                return "sketch.description, sketch.version";
+            default:
+                return "sketch.modified_at DESC";
         }
-        return null;
     }
 
-    public void deleteSketch(int id) {
-        DeleteAsyncTask dat = new DeleteAsyncTask(sketchDAO);
+    /**
+     * Runs a paged query to its end inside one transaction, so the pages are consistent.
+     */
+    private SketchInfo[] loadPages(PageQuery query) {
+        ArrayList<SketchInfo> result = new ArrayList<>();
+        db.beginTransaction();
         try {
-            dat.execute(id).get();
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            for (int offset = 0; ; offset += PAGE_SIZE) {
+                SketchInfo[] page = query.load(PAGE_SIZE, offset);
+                Collections.addAll(result, page);
+                if (page.length < PAGE_SIZE)
+                    break;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
-
+        return result.toArray(new SketchInfo[result.size()]);
     }
 
-    public void updateSketch(Sketch sketch) {
-
-        UpdateAsyncTask updateAsyncTask = new UpdateAsyncTask(sketchDAO);
-        try {
-            updateAsyncTask.execute(sketch).get();
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    /**
+     * Turns free text into an FTS query of prefix terms, e.g. {@code tree ho} into
+     * {@code "tree*" "ho*"}. Quotes are dropped so user input cannot change the query syntax.
+     */
+    static String toMatchExpression(String text) {
+        StringBuilder match = new StringBuilder();
+        for (String word : text.replace('"', ' ').trim().split("\\s+")) {
+            if (word.isEmpty())
+                continue;
+            if (match.length() > 0)
+                match.append(' ');
+            match.append('"').append(word).append("*\"");
         }
+        return match.toString();
     }
 
+    /**
+     * Returns the derived data of a sketch, which may belong to an older version while the
+     * background worker is behind, or null if it was not computed yet.
+     */
+    public SketchStats getStatsSync(int id) {
+        return this.sketchDAO.getStats(id);
+    }
 
-    private static class InsertAsyncTask extends AsyncTask<Sketch, Long, Long> {
+    public Sketch getSketchSync(int id) {
+        return this.sketchDAO.getSketchById(id);
+    }
 
-        private SketchDAO sketchDAO;
+    /**
+     * Loads a sketch and delivers it, or null if it does not exist, to the callback on the UI
+     * thread. The load runs on the database writer, so it sees the writes queued before it, e.g.
+     * the save of an editor that was just closed. It is cancelled when the owner is destroyed.
+     */
+    public TaskScheduler.Task<Sketch> getSketch(LifecycleOwner owner, int id, TaskScheduler.Callback<Sketch> callback) {
+        return scheduler.submit(owner, TaskScheduler.POOL_DB_WRITE, TaskScheduler.PRIORITY_HIGH,
+                new GetTask(sketchDAO, id), callback);
+    }
 
-        public InsertAsyncTask(SketchDAO sketchDAO) {
-            this.sketchDAO = sketchDAO;
-        }
+    /**
+     * Loads the copy of a sketch that is stored while its editor is re-created and delivers it,
+     * or null if there is none, with the id of the sketch it was copied from. If that sketch was
+     * new, its insert may still have been queued when the copy was made; it is then found by its
+     * creation time, as the insert ran before this load. If it is not found, it stays new.
+     */
+    public TaskScheduler.Task<Sketch> getSketchCopy(LifecycleOwner owner, final int copyId, final int sketchId, TaskScheduler.Callback<Sketch> callback) {
+        return scheduler.submit(owner, TaskScheduler.POOL_DB_WRITE, TaskScheduler.PRIORITY_HIGH, new Callable<Sketch>() {
+            @Override
+            public Sketch call() {
+                Sketch copy = sketchDAO.getSketchById(copyId);
+                if (copy == null)
+                    return null;
+                copy.id = sketchId;
+                if (sketchId < 0 && copy.createdAt != 0) {
+                    int[] ids = sketchDAO.getSketchIdsByCreated(copy.createdAt);
+                    if (ids.length == 1)
+                        copy.id = ids[0];
+                }
+                return copy;
+            }
+        }, callback);
+    }
 
-        @Override
-        protected Long doInBackground(Sketch... sketches) {
-            return this.sketchDAO.insertSketch(sketches[0]);
-        }
+    /**
+     * Deletes a sketch on the database writer without waiting for it. Listeners are notified
+     * once the sketch is gone; writes queued later, e.g. an insert with the same id, run after it.
+     */
+    public void deleteSketch(final int id) {
+        final DeleteTask task = new DeleteTask(sketchDAO, thumbnailCache, shareCache, id);
+        scheduler.submit(TaskScheduler.POOL_DB_WRITE, TaskScheduler.PRIORITY_HIGH, new Callable<Void>() {
+            @Override
+            public Void call() {
+                try {
+                    task.call();
+                } catch (RuntimeException e) {
+                    Log.e("RoomHandler", "Cannot delete sketch " + id, e);
+                    return null;
+                }
+                publish(new SketchChange(SketchChange.DELETED, id, -1));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Updates a sketch on the database writer without waiting for it and delivers its new
+     * version to the callback, if one is given. Like an insert, it completes when the editor
+     * that started it is closed.
+     */
+    public TaskScheduler.Task<Integer> updateSketch(final Sketch sketch, TaskScheduler.Callback<Integer> callback) {
+        final UpdateTask task = new UpdateTask(sketchDAO, thumbnailCache, derivedDataWorker, sketch);
+        return scheduler.submit(null, TaskScheduler.POOL_DB_WRITE, TaskScheduler.PRIORITY_HIGH, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                task.call();
+                publish(new SketchChange(SketchChange.UPDATED, sketch.id, sketch.version));
+                return sketch.version;
+            }
+        }, callback);
     }
 
-    private static class GetAllAsyncTask extends AsyncTask<Sketch, Long, Sketch[]> {
+    private static class InsertTask implements Callable<Long> {
 
         private SketchDAO sketchDAO;
+        private ThumbnailCache thumbnailCache;
+        private DerivedDataWorker derivedDataWorker;
+        private Sketch[] sketches;
 
-        public GetAllAsyncTask(SketchDAO sketchDAO) {
+        public InsertTask(SketchDAO sketchDAO, ThumbnailCache thumbnailCache, DerivedDataWorker derivedDataWorker, Sketch... sketches) {
             this.sketchDAO = sketchDAO;
+            this.thumbnailCache = thumbnailCache;
+            this.derivedDataWorker = derivedDataWorker;
+            this.sketches = sketches;
         }
 
         @Override
-        protected Sketch[] doInBackground(Sketch... sketches) {
-            Sketch[] allSketches = this.sketchDAO.getAllSketches();
-            return allSketches;
+        public Long call() {
+            long now = System.currentTimeMillis();
+            if (sketches[0].createdAt == 0)
+                sketches[0].createdAt = now;
+            sketches[0].modifiedAt = now;
+            // an insert may replace an existing row with the same id
+            if (sketches[0].id != 0)
+                this.thumbnailCache.invalidate(sketches[0].id);
+            long id = this.sketchDAO.insertSketch(sketches[0]);
+            if (id >= 0)
+                this.derivedDataWorker.enqueue((int) id, sketches[0].version);
+            return id;
         }
     }
 
-    private static class GetAsyncTask extends AsyncTask<Integer, Long, Sketch> {
+    private static class GetTask implements Callable<Sketch> {
 
         private SketchDAO sketchDAO;
+        private int id;
 
-        public GetAsyncTask(SketchDAO sketchDAO) {
+        public GetTask(SketchDAO sketchDAO, int id) {
             this.sketchDAO = sketchDAO;
+            this.id = id;
         }
 
         @Override
-        protected Sketch doInBackground(Integer... integers) {
-            int id = integers[0];
+        public Sketch call() {
             return this.sketchDAO.getSketchById(id);
         }
     }
 
-    private static class DeleteAsyncTask extends AsyncTask<Integer, Long, Sketch> {
+    private static class DeleteTask implements Callable<Void> {
 
         private SketchDAO sketchDAO;
+        private ThumbnailCache thumbnailCache;
+        private ShareCache shareCache;
+        private int id;
 
-        public DeleteAsyncTask(SketchDAO sketchDAO) {
+        public DeleteTask(SketchDAO sketchDAO, ThumbnailCache thumbnailCache, ShareCache shareCache, int id) {
             this.sketchDAO = sketchDAO;
+            this.thumbnailCache = thumbnailCache;
+            this.shareCache = shareCache;
+            this.id = id;
         }
 
 
         @Override
-        protected Sketch doInBackground(Integer... integers) {
-            int id = integers[0];
+        public Void call() {
             this.sketchDAO.deleteSketch(id);
+            this.sketchDAO.deleteJobs(id);
+            this.sketchDAO.deleteStats(id);
+            this.thumbnailCache.invalidate(id);
+            // shared images are not encrypted, they must not outlive the sketch
+            this.shareCache.remove(id);
             return null;
         }
     }
 
-    private static class UpdateAsyncTask extends AsyncTask<Sketch, Long, Sketch> {
+    private static class UpdateTask implements Callable<Void> {
 
         private SketchDAO sketchDAO;
+        private ThumbnailCache thumbnailCache;
+        private DerivedDataWorker derivedDataWorker;
+        private Sketch[] sketches;
 
-        public UpdateAsyncTask(SketchDAO sketchDAO) {
+        public UpdateTask(SketchDAO sketchDAO, ThumbnailCache thumbnailCache, DerivedDataWorker derivedDataWorker, Sketch... sketches) {
             this.sketchDAO = sketchDAO;
+            this.thumbnailCache = thumbnailCache;
+            this.derivedDataWorker = derivedDataWorker;
+            this.sketches = sketches;
         }
 
 
         @Override
-        protected Sketch doInBackground(Sketch... sketches) {
+        public Void call() {
+            long now = System.currentTimeMillis();
+            for (Sketch sketch : sketches) {
+                // the stored version counts, the caller may not have seen the last update yet
+                sketch.version = this.sketchDAO.getVersion(sketch.id) + 1;
+                sketch.modifiedAt = now;
+            }
             this.sketchDAO.updateSketch(sketches);
+            for (Sketch sketch : sketches) {
+                this.thumbnailCache.invalidate(sketch.id);
+                if (sketch.id >= 0)
+                    this.derivedDataWorker.enqueue(sketch.id, sketch.version);
+            }
             return null;
         }
     }
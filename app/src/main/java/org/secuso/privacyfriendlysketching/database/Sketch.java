@@ -16,35 +16,44 @@
  */
 package org.secuso.privacyfriendlysketching.database;
 
+import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Index;
 import android.arch.persistence.room.PrimaryKey;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.RectF;
 
 import com.divyanshu.draw.widget.MyPath;
 import com.divyanshu.draw.widget.PaintOptions;
 
+import org.secuso.privacyfriendlysketching.helpers.SketchRenderer;
 import org.secuso.privacyfriendlysketching.helpers.Utility;
 
 import java.util.LinkedHashMap;
-import java.util.Map;
 
 /**
  * Represents the implementation of a single Sketch consisting of an id, a bitmap, a path
  * and a description.
  */
 
-@Entity(tableName = "sketch")
+@Entity(tableName = "sketch", indices = {
+        // covering indices for the gallery sort orders, so listing never touches the blob pages
+        @Index({"modified_at", "version", "description"}),
+        @Index({"created_at", "version", "description"}),
+        @Index({"description", "version"})})
 public class Sketch {
     @PrimaryKey(autoGenerate = true)
     public int id;
     public byte[] bitmap;
     public byte[] paths;
     public String description;
+    /** Incremented on every update, so caches derived from the content can be keyed by it. */
+    public int version;
+    /** Creation time in milliseconds since the epoch, set on the first insert. */
+    @ColumnInfo(name = "created_at")
+    public long createdAt;
+    /** Time of the last insert or update in milliseconds since the epoch. */
+    @ColumnInfo(name = "modified_at")
+    public long modifiedAt;
 
     public Sketch(Bitmap bitmap, LinkedHashMap<MyPath, PaintOptions> paths, String description) {
         if (bitmap != null)
@@ -90,76 +99,41 @@ public class Sketch {
     }
 
     public Bitmap getFullImage(int width, int height) {
-        Bitmap background = this.getBitmap();
-        LinkedHashMap<MyPath, PaintOptions> paths = getPaths();
-
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        canvas.drawColor(Color.WHITE);
-
-        RectF sourceRect = new RectF(0.f, 0.f, width, height );
-        RectF targetRect = new RectF( 0.f, 0.f, 0.f, 0.f);
-        Matrix transform = new Matrix();
-
-        if (paths != null) {
-            for (Map.Entry<MyPath, PaintOptions> pair : paths.entrySet()) {
-                float size = pair.getValue().getStrokeWidth();
-                RectF bounds = pair.getKey().getBounds();
-                bounds.left -= size;
-                bounds.right += size;
-                bounds.top -= size;
-                bounds.bottom += size;
-                if (targetRect.left > bounds.left)
-                    targetRect.left = bounds.left;
-                if (targetRect.right < bounds.right)
-                    targetRect.right = bounds.right;
-                if (targetRect.top > bounds.top)
-                    targetRect.top = bounds.top;
-                if (targetRect.bottom < bounds.bottom)
-                    targetRect.bottom = bounds.bottom;
-            }
-        }
-
-        transform.setRectToRect(targetRect, sourceRect, Matrix.ScaleToFit.CENTER);
-
-        if (background != null) {
-            RectF backgroundRect = new RectF();
-            backgroundRect.left = - background.getWidth() / 2.f;
-            backgroundRect.right = background.getWidth() / 2.f;
-            backgroundRect.top = - background.getHeight() / 2.f;
-            backgroundRect.bottom = + background.getHeight() / 2.f;
-            if (background.getHeight() == 1 && background.getHeight() == 1)
-                backgroundRect.set(canvas.getClipBounds());
-            else
-                transform.mapRect(backgroundRect);
-
-            canvas.drawBitmap(background, null, backgroundRect, null);
-        }
-
-        canvas.setMatrix(transform);
-
-        if (paths != null) {
-            for (Map.Entry<MyPath, PaintOptions> pair : paths.entrySet()) {
-                Paint mPaint = new Paint();
-                mPaint.setStyle(Paint.Style.STROKE);
-                mPaint.setStrokeJoin(Paint.Join.ROUND);
-                mPaint.setStrokeCap(Paint.Cap.ROUND);
-                mPaint.setAntiAlias(true);
-                mPaint.setColor(pair.getValue().getColor());
-                mPaint.setAlpha(pair.getValue().getAlpha());
-                mPaint.setStrokeWidth(pair.getValue().getStrokeWidth());
-
-                canvas.drawPath(pair.getKey(), mPaint);
-            }
-        }
-
-        return bitmap;
+        return getFullImage(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+    }
+
+    /**
+     * Draws the sketch on a white background fitted into the given mutable bitmap, whose previous
+     * content is overwritten. Since the result is opaque, the bitmap may be RGB_565.
+     */
+    public Bitmap getFullImage(Bitmap bitmap) {
+        return SketchRenderer.render(bitmap, getBitmap(), getPaths());
     }
 
     public void setBitmap(byte[] bitmap) {
         this.bitmap = bitmap;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public long getModifiedAt() {
+        return modifiedAt;
+    }
+
     public String getDescription() {
         return description;
     }
@@ -0,0 +1,38 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.database;
+
+/**
+ * Describes a single change to the sketch table, as published by {@link RoomHandler}.
+ */
+
+public class SketchChange {
+    public final static int INSERTED = 0;
+    public final static int UPDATED = 1;
+    public final static int DELETED = 2;
+
+    public final int type;
+    public final int id;
+    /** The version of the sketch after the change, or -1 if it was deleted. */
+    public final int version;
+
+    SketchChange(int type, int id, int version) {
+        this.type = type;
+        this.id = id;
+        this.version = version;
+    }
+}
@@ -20,7 +20,9 @@ import android.arch.persistence.room.Dao;
 import android.arch.persistence.room.Delete;
 import android.arch.persistence.room.Insert;
 import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.db.SupportSQLiteQuery;
 import android.arch.persistence.room.Query;
+import android.arch.persistence.room.RawQuery;
 import android.arch.persistence.room.Update;
 
 /**
@@ -51,6 +53,28 @@ public interface SketchDAO {
     @Query("SELECT id FROM sketch ORDER BY id DESC")
     int[] getSketchIds();
 
+    @Query("SELECT id FROM sketch WHERE created_at = :createdAt AND id >= 0")
+    int[] getSketchIdsByCreated(long createdAt);
+
+    @Query("SELECT version FROM sketch WHERE id = :id")
+    int getVersion(int id);
+
+    // Sketches with a negative id are internal, e.g. the unsaved state of the editor. The
+    // metadata queries are paged, as a single cursor window cannot hold a large gallery.
+
+    @Query("SELECT id, version, description FROM sketch WHERE id >= 0 ORDER BY modified_at DESC LIMIT :limit OFFSET :offset")
+    SketchInfo[] getSketchInfosByModified(int limit, int offset);
+
+    @Query("SELECT id, version, description FROM sketch WHERE id >= 0 ORDER BY created_at DESC LIMIT :limit OFFSET :offset")
+    SketchInfo[] getSketchInfosByCreated(int limit, int offset);
+
+    @Query("SELECT id, version, description FROM sketch WHERE id >= 0 ORDER BY description, version LIMIT :limit OFFSET :offset")
+    SketchInfo[] getSketchInfosByName(int limit, int offset);
+
+    /** Runs a query over the full-text index built by {@link SketchingRoomDB}. */
+    @RawQuery
+    SketchInfo[] searchSketchInfos(SupportSQLiteQuery query);
+
     @Update
     void updateSketch(Sketch... sketches);
 
@@ -63,4 +87,26 @@ public interface SketchDAO {
     @Query("DELETE FROM sketch")
     void deleteAllSketches();
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void enqueueJob(SketchJob job);
+
+    @Query("SELECT * FROM sketch_job ORDER BY enqueued_at LIMIT 1")
+    SketchJob getNextJob();
+
+    /** Removes the job of a sketch unless it was requested again for a newer version. */
+    @Query("DELETE FROM sketch_job WHERE sketch_id = :sketchId AND version <= :version")
+    void deleteJob(int sketchId, int version);
+
+    @Query("DELETE FROM sketch_job WHERE sketch_id = :sketchId")
+    void deleteJobs(int sketchId);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertStats(SketchStats stats);
+
+    @Query("SELECT * FROM sketch_stats WHERE sketch_id = :sketchId")
+    SketchStats getStats(int sketchId);
+
+    @Query("DELETE FROM sketch_stats WHERE sketch_id = :sketchId")
+    void deleteStats(int sketchId);
+
 }
@@ -0,0 +1,39 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.database;
+
+/**
+ * The columns of a sketch that are needed to show it in the gallery, without its blobs.
+ */
+
+public class SketchInfo {
+    public int id;
+    public int version;
+    public String description;
+
+    public int getId() {
+        return id;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.database;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.PrimaryKey;
+
+/**
+ * A pending request to regenerate the data derived from a sketch. There is at most one job per
+ * sketch, so repeated requests are coalesced into the one for the latest version.
+ */
+
+@Entity(tableName = "sketch_job")
+public class SketchJob {
+    @PrimaryKey
+    @ColumnInfo(name = "sketch_id")
+    public int sketchId;
+    public int version;
+    @ColumnInfo(name = "enqueued_at")
+    public long enqueuedAt;
+
+    public SketchJob(int sketchId, int version, long enqueuedAt) {
+        this.sketchId = sketchId;
+        this.version = version;
+        this.enqueuedAt = enqueuedAt;
+    }
+}
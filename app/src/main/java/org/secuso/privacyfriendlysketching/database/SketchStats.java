@@ -0,0 +1,46 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.database;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.PrimaryKey;
+
+/**
+ * Values derived from the strokes of a sketch, computed in the background for the version
+ * stated.
+ */
+
+@Entity(tableName = "sketch_stats")
+public class SketchStats {
+    @PrimaryKey
+    @ColumnInfo(name = "sketch_id")
+    public int sketchId;
+    public int version;
+    @ColumnInfo(name = "stroke_count")
+    public int strokeCount;
+    @ColumnInfo(name = "point_count")
+    public int pointCount;
+    @ColumnInfo(name = "bounds_left")
+    public float boundsLeft;
+    @ColumnInfo(name = "bounds_top")
+    public float boundsTop;
+    @ColumnInfo(name = "bounds_right")
+    public float boundsRight;
+    @ColumnInfo(name = "bounds_bottom")
+    public float boundsBottom;
+}
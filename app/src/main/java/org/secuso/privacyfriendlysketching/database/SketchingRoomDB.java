@@ -18,20 +18,23 @@ package org.secuso.privacyfriendlysketching.database;
 
 import android.content.Context;
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.room.Database;
 import android.arch.persistence.room.Room;
 import android.arch.persistence.room.RoomDatabase;
+import android.arch.persistence.room.migration.Migration;
 
 import com.commonsware.cwac.saferoom.SafeHelperFactory;
 
 import org.secuso.privacyfriendlysketching.helpers.EncryptionHelper;
+import org.secuso.privacyfriendlysketching.helpers.ShareCache;
 
 
 /**
  * Handles the creation of the database and makes sure it is existent and consistent.
  */
 
-@Database(entities = {Sketch.class}, version = 1)
+@Database(entities = {Sketch.class, SketchJob.class, SketchStats.class}, version = 5)
 public abstract class SketchingRoomDB extends RoomDatabase {
 
     public static final String DATABASENAME = "sketchingroomdb";
@@ -40,12 +43,83 @@ public abstract class SketchingRoomDB extends RoomDatabase {
 
     private static volatile SketchingRoomDB INSTANCE;
 
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE sketch ADD COLUMN version INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            createSearchIndex(database);
+            database.execSQL("INSERT INTO sketch_fts(docid, description, tags) SELECT id, description, '' FROM sketch");
+        }
+    };
+
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE sketch ADD COLUMN created_at INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE sketch ADD COLUMN modified_at INTEGER NOT NULL DEFAULT 0");
+            // the real times are unknown, spacing the rows by id keeps the previous order
+            database.execSQL("UPDATE sketch SET created_at = ? + id - (SELECT MAX(id) FROM sketch)",
+                    new Object[]{System.currentTimeMillis()});
+            database.execSQL("UPDATE sketch SET modified_at = created_at");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_sketch_modified_at_version_description ON sketch (modified_at, version, description)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_sketch_created_at_version_description ON sketch (created_at, version, description)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_sketch_description_version ON sketch (description, version)");
+        }
+    };
+
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS sketch_job (sketch_id INTEGER NOT NULL, version INTEGER NOT NULL, "
+                    + "enqueued_at INTEGER NOT NULL, PRIMARY KEY(sketch_id))");
+            database.execSQL("CREATE TABLE IF NOT EXISTS sketch_stats (sketch_id INTEGER NOT NULL, version INTEGER NOT NULL, "
+                    + "stroke_count INTEGER NOT NULL, point_count INTEGER NOT NULL, bounds_left REAL NOT NULL, "
+                    + "bounds_top REAL NOT NULL, bounds_right REAL NOT NULL, bounds_bottom REAL NOT NULL, PRIMARY KEY(sketch_id))");
+            // derive the data of all existing sketches once
+            database.execSQL("INSERT INTO sketch_job (sketch_id, version, enqueued_at) SELECT id, version, modified_at FROM sketch WHERE id >= 0");
+        }
+    };
+
+    /**
+     * Creates the full-text index over the sketch descriptions. Room does not know FTS tables in
+     * this version, so the table is maintained by triggers and queried through raw queries.
+     * The docid of an index row is the id of its sketch; the tags column is reserved.
+     */
+    static void createSearchIndex(SupportSQLiteDatabase database) {
+        database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS sketch_fts USING fts4(description, tags, prefix=\"2,3\")");
+        // an insert may replace a row, which does not fire the delete trigger
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS sketch_fts_insert AFTER INSERT ON sketch BEGIN "
+                + "DELETE FROM sketch_fts WHERE docid = new.id; "
+                + "INSERT INTO sketch_fts(docid, description, tags) VALUES (new.id, new.description, ''); END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS sketch_fts_update AFTER UPDATE OF description ON sketch BEGIN "
+                + "UPDATE sketch_fts SET description = new.description WHERE docid = new.id; END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS sketch_fts_delete AFTER DELETE ON sketch BEGIN "
+                + "DELETE FROM sketch_fts WHERE docid = old.id; END");
+    }
+
     public static SketchingRoomDB getDatabase(final Context context) {
         if (INSTANCE == null) {
             synchronized (SketchingRoomDB.class) {
                 if (INSTANCE == null) {
                     SafeHelperFactory shf = new SafeHelperFactory(EncryptionHelper.loadPassPhrase(context));
-                    INSTANCE = Room.databaseBuilder(context.getApplicationContext(), SketchingRoomDB.class, DATABASENAME).openHelperFactory(shf).build();
+                    INSTANCE = Room.databaseBuilder(context.getApplicationContext(), SketchingRoomDB.class, DATABASENAME)
+                            .openHelperFactory(shf)
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5)
+                            .addCallback(new Callback() {
+                                @Override
+                                public void onCreate(SupportSQLiteDatabase db) {
+                                    createSearchIndex(db);
+                                    // images of a previous database would be served for new sketches with the same ids
+                                    ShareCache.getInstance(context).clear();
+                                }
+                            })
+                            .build();
                 }
             }
         }
@@ -0,0 +1,274 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.database;
+
+import android.arch.persistence.db.SupportSQLiteQuery;
+
+import org.secuso.privacyfriendlysketching.helpers.Metrics;
+
+/**
+ * Records the latency of every query of the wrapped DAO in {@link Metrics}, named
+ * {@code db.<method>}, and marks it as a trace section.
+ */
+
+class TimedSketchDAO implements SketchDAO {
+    private final SketchDAO dao;
+
+    TimedSketchDAO(SketchDAO dao) {
+        this.dao = dao;
+    }
+
+    @Override
+    public long insertSketch(Sketch sketch) {
+        long start = Metrics.begin("db.insertSketch");
+        try {
+            return dao.insertSketch(sketch);
+        } finally {
+            Metrics.end("db.insertSketch", start);
+        }
+    }
+
+    @Override
+    public Sketch[] getAllSketches() {
+        long start = Metrics.begin("db.getAllSketches");
+        try {
+            return dao.getAllSketches();
+        } finally {
+            Metrics.end("db.getAllSketches", start);
+        }
+    }
+
+    @Override
+    public Sketch getSketchById(int id) {
+        long start = Metrics.begin("db.getSketchById");
+        try {
+            return dao.getSketchById(id);
+        } finally {
+            Metrics.end("db.getSketchById", start);
+        }
+    }
+
+    @Override
+    public Sketch[] getSketchByDescription(String description) {
+        long start = Metrics.begin("db.getSketchByDescription");
+        try {
+            return dao.getSketchByDescription(description);
+        } finally {
+            Metrics.end("db.getSketchByDescription", start);
+        }
+    }
+
+    @Override
+    public Sketch[] getSketchByBitmap(byte[] bitmap) {
+        long start = Metrics.begin("db.getSketchByBitmap");
+        try {
+            return dao.getSketchByBitmap(bitmap);
+        } finally {
+            Metrics.end("db.getSketchByBitmap", start);
+        }
+    }
+
+    @Override
+    public int getSketchCount() {
+        long start = Metrics.begin("db.getSketchCount");
+        try {
+            return dao.getSketchCount();
+        } finally {
+            Metrics.end("db.getSketchCount", start);
+        }
+    }
+
+    @Override
+    public int[] getSketchIds() {
+        long start = Metrics.begin("db.getSketchIds");
+        try {
+            return dao.getSketchIds();
+        } finally {
+            Metrics.end("db.getSketchIds", start);
+        }
+    }
+
+    @Override
+    public int[] getSketchIdsByCreated(long createdAt) {
+        long start = Metrics.begin("db.getSketchIdsByCreated");
+        try {
+            return dao.getSketchIdsByCreated(createdAt);
+        } finally {
+            Metrics.end("db.getSketchIdsByCreated", start);
+        }
+    }
+
+    @Override
+    public int getVersion(int id) {
+        long start = Metrics.begin("db.getVersion");
+        try {
+            return dao.getVersion(id);
+        } finally {
+            Metrics.end("db.getVersion", start);
+        }
+    }
+
+    @Override
+    public SketchInfo[] getSketchInfosByModified(int limit, int offset) {
+        long start = Metrics.begin("db.getSketchInfosByModified");
+        try {
+            return dao.getSketchInfosByModified(limit, offset);
+        } finally {
+            Metrics.end("db.getSketchInfosByModified", start);
+        }
+    }
+
+    @Override
+    public SketchInfo[] getSketchInfosByCreated(int limit, int offset) {
+        long start = Metrics.begin("db.getSketchInfosByCreated");
+        try {
+            return dao.getSketchInfosByCreated(limit, offset);
+        } finally {
+            Metrics.end("db.getSketchInfosByCreated", start);
+        }
+    }
+
+    @Override
+    public SketchInfo[] getSketchInfosByName(int limit, int offset) {
+        long start = Metrics.begin("db.getSketchInfosByName");
+        try {
+            return dao.getSketchInfosByName(limit, offset);
+        } finally {
+            Metrics.end("db.getSketchInfosByName", start);
+        }
+    }
+
+    @Override
+    public SketchInfo[] searchSketchInfos(SupportSQLiteQuery query) {
+        long start = Metrics.begin("db.searchSketchInfos");
+        try {
+            return dao.searchSketchInfos(query);
+        } finally {
+            Metrics.end("db.searchSketchInfos", start);
+        }
+    }
+
+    @Override
+    public void updateSketch(Sketch... sketches) {
+        long start = Metrics.begin("db.updateSketch");
+        try {
+            dao.updateSketch(sketches);
+        } finally {
+            Metrics.end("db.updateSketch", start);
+        }
+    }
+
+    @Override
+    public void deleteSketch(Sketch... sketches) {
+        long start = Metrics.begin("db.deleteSketch");
+        try {
+            dao.deleteSketch(sketches);
+        } finally {
+            Metrics.end("db.deleteSketch", start);
+        }
+    }
+
+    @Override
+    public void deleteSketch(int id) {
+        long start = Metrics.begin("db.deleteSketch");
+        try {
+            dao.deleteSketch(id);
+        } finally {
+            Metrics.end("db.deleteSketch", start);
+        }
+    }
+
+    @Override
+    public void deleteAllSketches() {
+        long start = Metrics.begin("db.deleteAllSketches");
+        try {
+            dao.deleteAllSketches();
+        } finally {
+            Metrics.end("db.deleteAllSketches", start);
+        }
+    }
+
+    @Override
+    public void enqueueJob(SketchJob job) {
+        long start = Metrics.begin("db.enqueueJob");
+        try {
+            dao.enqueueJob(job);
+        } finally {
+            Metrics.end("db.enqueueJob", start);
+        }
+    }
+
+    @Override
+    public SketchJob getNextJob() {
+        long start = Metrics.begin("db.getNextJob");
+        try {
+            return dao.getNextJob();
+        } finally {
+            Metrics.end("db.getNextJob", start);
+        }
+    }
+
+    @Override
+    public void deleteJob(int sketchId, int version) {
+        long start = Metrics.begin("db.deleteJob");
+        try {
+            dao.deleteJob(sketchId, version);
+        } finally {
+            Metrics.end("db.deleteJob", start);
+        }
+    }
+
+    @Override
+    public void deleteJobs(int sketchId) {
+        long start = Metrics.begin("db.deleteJobs");
+        try {
+            dao.deleteJobs(sketchId);
+        } finally {
+            Metrics.end("db.deleteJobs", start);
+        }
+    }
+
+    @Override
+    public void insertStats(SketchStats stats) {
+        long start = Metrics.begin("db.insertStats");
+        try {
+            dao.insertStats(stats);
+        } finally {
+            Metrics.end("db.insertStats", start);
+        }
+    }
+
+    @Override
+    public SketchStats getStats(int sketchId) {
+        long start = Metrics.begin("db.getStats");
+        try {
+            return dao.getStats(sketchId);
+        } finally {
+            Metrics.end("db.getStats", start);
+        }
+    }
+
+    @Override
+    public void deleteStats(int sketchId) {
+        long start = Metrics.begin("db.deleteStats");
+        try {
+            dao.deleteStats(sketchId);
+        } finally {
+            Metrics.end("db.deleteStats", start);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+
+import com.divyanshu.draw.widget.MyPath;
+import com.divyanshu.draw.widget.PaintOptions;
+
+import org.secuso.privacyfriendlysketching.database.Sketch;
+import org.secuso.privacyfriendlysketching.helpers.SketchRenderer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a sketch as PNG at a resolution far beyond what fits into one bitmap. The image is
+ * rendered in horizontal bands into a single reused bitmap, and every band is filtered and
+ * deflated into the PNG stream before the next one is drawn, so the memory needed depends on
+ * the width of the image but not on its height.
+ */
+
+public class BandedPngEncoder implements Encoder {
+    private final static byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private final static byte[] IHDR = {'I', 'H', 'D', 'R'};
+    private final static byte[] PHYS = {'p', 'H', 'Y', 's'};
+    private final static byte[] IDAT = {'I', 'D', 'A', 'T'};
+    private final static byte[] IEND = {'I', 'E', 'N', 'D'};
+
+    private final static int FILTER_NONE = 0;
+    private final static int FILTER_SUB = 1;
+    private final static int FILTER_UP = 2;
+
+    /** Upper bound of the memory used by the band bitmap. */
+    private final static int BAND_BYTES = 4 * 1024 * 1024;
+    private final static int CHUNK_SIZE = 64 * 1024;
+    private final static double INCHES_PER_METER = 1 / 0.0254;
+
+    private final Sketch sketch;
+    private final int longSide;
+    private final int dpi;
+    private final CRC32 crc = new CRC32();
+    private final byte[] header = new byte[8];
+
+    /**
+     * @param longSide the size of the longer side of the image in pixels
+     * @param dpi      the resolution that is stored in the image for printing
+     */
+    public BandedPngEncoder(Sketch sketch, int longSide, int dpi) {
+        this.sketch = sketch;
+        this.longSide = longSide;
+        this.dpi = dpi;
+    }
+
+    @Override
+    public String getMimeType() {
+        return "image/png";
+    }
+
+    @Override
+    public String getExtension() {
+        return "png";
+    }
+
+    @Override
+    public void encode(OutputStream out, ProgressListener listener) throws IOException {
+        listener.onProgress(0);
+        LinkedHashMap<MyPath, PaintOptions> paths = sketch.getPaths();
+        Bitmap background = sketch.getBitmap();
+
+        RectF bounds = new RectF();
+        SketchRenderer.computeBounds(paths, bounds);
+        float aspect = 1.f;
+        if (bounds.width() > 0 && bounds.height() > 0)
+            aspect = bounds.width() / bounds.height();
+        else if (background != null && background.getWidth() > 1 && background.getHeight() > 1)
+            aspect = (float) background.getWidth() / background.getHeight();
+        int width = aspect >= 1 ? longSide : Math.max(1, Math.round(longSide * aspect));
+        int height = aspect >= 1 ? Math.max(1, Math.round(longSide / aspect)) : longSide;
+        int bandHeight = Math.max(1, Math.min(height, BAND_BYTES / (width * 4)));
+
+        out.write(SIGNATURE);
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8] = 8; // bit depth
+        ihdr[9] = 2; // truecolor without alpha, the rendering is opaque
+        writeChunk(out, IHDR, ihdr, ihdr.length);
+        byte[] phys = new byte[9];
+        int pixelsPerMeter = (int) Math.round(dpi * INCHES_PER_METER);
+        putInt(phys, 0, pixelsPerMeter);
+        putInt(phys, 4, pixelsPerMeter);
+        phys[8] = 1; // unit is meter
+        writeChunk(out, PHYS, phys, phys.length);
+
+        Bitmap band = Bitmap.createBitmap(width, bandHeight, Bitmap.Config.ARGB_8888);
+        Deflater deflater = new Deflater();
+        try {
+            int[] pixels = new int[width];
+            int stride = width * 3;
+            byte[] row = new byte[stride];
+            byte[] previousRow = new byte[stride];
+            byte[][] filtered = new byte[3][stride + 1];
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int chunkLength = 0;
+
+            for (int top = 0; top < height; top += bandHeight) {
+                SketchRenderer.renderBand(band, background, paths, width, height, top);
+                int rows = Math.min(bandHeight, height - top);
+                for (int y = 0; y < rows; y++) {
+                    band.getPixels(pixels, 0, width, 0, y, width, 1);
+                    for (int x = 0, i = 0; x < width; x++) {
+                        int pixel = pixels[x];
+                        row[i++] = (byte) (pixel >> 16);
+                        row[i++] = (byte) (pixel >> 8);
+                        row[i++] = (byte) pixel;
+                    }
+
+                    byte[] best = filterRow(row, previousRow, top + y == 0, filtered);
+                    deflater.setInput(best, 0, stride + 1);
+                    while (!deflater.needsInput()) {
+                        chunkLength += deflater.deflate(chunk, chunkLength, CHUNK_SIZE - chunkLength);
+                        if (chunkLength == CHUNK_SIZE) {
+                            writeChunk(out, IDAT, chunk, chunkLength);
+                            chunkLength = 0;
+                        }
+                    }
+
+                    byte[] swap = previousRow;
+                    previousRow = row;
+                    row = swap;
+                }
+                listener.onProgress((int) ((long) (top + rows) * 100 / height));
+            }
+
+            deflater.finish();
+            while (!deflater.finished()) {
+                chunkLength += deflater.deflate(chunk, chunkLength, CHUNK_SIZE - chunkLength);
+                if (chunkLength == CHUNK_SIZE) {
+                    writeChunk(out, IDAT, chunk, chunkLength);
+                    chunkLength = 0;
+                }
+            }
+            if (chunkLength > 0)
+                writeChunk(out, IDAT, chunk, chunkLength);
+            writeChunk(out, IEND, chunk, 0);
+        } finally {
+            deflater.end();
+            band.recycle();
+            if (background != null)
+                background.recycle();
+        }
+        listener.onProgress(100);
+    }
+
+    /**
+     * Applies the filters None, Sub and Up to the row and returns the one with the smallest sum
+     * of absolute values, the heuristic recommended by the PNG specification. The returned array
+     * starts with the filter type.
+     */
+    private static byte[] filterRow(byte[] row, byte[] previousRow, boolean first, byte[][] filtered) {
+        int length = row.length;
+        byte[] none = filtered[FILTER_NONE];
+        byte[] sub = filtered[FILTER_SUB];
+        byte[] up = filtered[FILTER_UP];
+        none[0] = FILTER_NONE;
+        sub[0] = FILTER_SUB;
+        up[0] = FILTER_UP;
+        long noneSum = 0;
+        long subSum = 0;
+        long upSum = 0;
+        for (int i = 0; i < length; i++) {
+            byte value = row[i];
+            byte subValue = (byte) (value - (i >= 3 ? row[i - 3] : 0));
+            byte upValue = (byte) (value - (first ? 0 : previousRow[i]));
+            none[i + 1] = value;
+            sub[i + 1] = subValue;
+            up[i + 1] = upValue;
+            noneSum += Math.abs(value);
+            subSum += Math.abs(subValue);
+            upSum += Math.abs(upValue);
+        }
+        if (subSum <= upSum && subSum <= noneSum)
+            return sub;
+        if (upSum <= noneSum)
+            return up;
+        return none;
+    }
+
+    private void writeChunk(OutputStream out, byte[] type, byte[] data, int length) throws IOException {
+        putInt(header, 0, length);
+        System.arraycopy(type, 0, header, 4, 4);
+        out.write(header, 0, 8);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(type, 0, 4);
+        crc.update(data, 0, length);
+        putInt(header, 0, (int) crc.getValue());
+        out.write(header, 0, 4);
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
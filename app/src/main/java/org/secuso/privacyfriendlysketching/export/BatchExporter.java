@@ -0,0 +1,499 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.divyanshu.draw.widget.MyPath;
+import com.divyanshu.draw.widget.PaintOptions;
+
+import org.secuso.privacyfriendlysketching.database.RoomHandler;
+import org.secuso.privacyfriendlysketching.database.Sketch;
+import org.secuso.privacyfriendlysketching.helpers.SketchRenderer;
+import org.secuso.privacyfriendlysketching.helpers.TaskScheduler;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports many sketches into one ZIP archive or PDF document. For archives, the sketches are
+ * rendered and encoded in parallel on the CPU pool of the {@link TaskScheduler}, while a single
+ * writer on the I/O pool stores the finished entries in the archive in the order they complete.
+ *
+ * Rendered bitmaps and encoded entries waiting for the writer are charged against a memory
+ * budget, so only a few of them exist at a time no matter how many sketches are exported.
+ */
+
+public class BatchExporter {
+    public final static int FORMAT_PNG = 0;
+    public final static int FORMAT_JPEG = 1;
+    public final static int FORMAT_SVG = 2;
+    /** Writes one PDF document with a page per sketch instead of a ZIP archive. */
+    public final static int FORMAT_PDF = 3;
+
+    public interface Listener {
+        /**
+         * Called on the UI thread with the number of processed sketches and the throughput.
+         */
+        void onBatchProgress(int done, int total, float sketchesPerSecond);
+
+        void onBatchFinished(int exported, int failed, float sketchesPerSecond);
+
+        void onBatchFailed(IOException e);
+    }
+
+    private final static String TAG = "BatchExporter";
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static int MAX_EXPORT_SIZE = 2048;
+    private final static int DEFAULT_EXPORT_SIZE = 1024;
+    private final static long MAX_MEMORY_BUDGET = 64 * 1024 * 1024;
+    private final static long PROGRESS_INTERVAL = 100;
+
+    private final RoomHandler roomHandler;
+    private final int[] ids;
+    private final int format;
+    private final Destination destination;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /** The memory budget in KiB, which keeps the permits within the range of an int. */
+    private final int memoryBudget;
+    private final Semaphore memory;
+    private final HashSet<String> entryNames = new HashSet<>();
+    private Future<?> writer;
+    // claimed by whoever comes first, the writer when it starts or a cancel before that
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile boolean cancelled = false;
+    // only accessed on the writer thread
+    private int exported = 0;
+    private int failed = 0;
+
+    // only accessed on the UI thread
+    private Listener listener;
+    private Runnable pendingResult;
+    private int done = 0;
+    private float sketchesPerSecond = 0;
+
+    private static class Entry {
+        final String name;
+        final long time;
+        final EntryBuffer data;
+        final long crc;
+        final int permits;
+
+        Entry(String name, long time, EntryBuffer data, long crc, int permits) {
+            this.name = name;
+            this.time = time;
+            this.data = data;
+            this.crc = crc;
+            this.permits = permits;
+        }
+    }
+
+    /**
+     * Gives access to the written bytes without the copy made by {@link #toByteArray()}.
+     */
+    private static class EntryBuffer extends ByteArrayOutputStream {
+        EntryBuffer(int size) {
+            super(size);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    private final static Encoder.ProgressListener NO_PROGRESS = new Encoder.ProgressListener() {
+        @Override
+        public void onProgress(int percent) {
+        }
+    };
+
+    public BatchExporter(RoomHandler roomHandler, int[] ids, int format, Destination destination) {
+        this.roomHandler = roomHandler;
+        this.ids = ids;
+        this.format = format;
+        this.destination = destination;
+        memoryBudget = (int) (Math.min(Runtime.getRuntime().maxMemory() / 4, MAX_MEMORY_BUDGET) / 1024);
+        memory = new Semaphore(memoryBudget, true);
+    }
+
+    public static String getExtension(int format) {
+        switch (format) {
+            case FORMAT_JPEG:
+                return "jpg";
+            case FORMAT_SVG:
+                return "svg";
+            case FORMAT_PDF:
+                return "pdf";
+            default:
+                return "png";
+        }
+    }
+
+    public int getTotal() {
+        return ids.length;
+    }
+
+    /**
+     * Attaches the listener, e.g. after a configuration change, and brings it up to date. Must be
+     * called on the UI thread.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        if (listener == null)
+            return;
+        if (pendingResult != null) {
+            pendingResult.run();
+            pendingResult = null;
+        } else {
+            listener.onBatchProgress(done, ids.length, sketchesPerSecond);
+        }
+    }
+
+    public void start() {
+        writer = TaskScheduler.getInstance().submit(TaskScheduler.POOL_IO, TaskScheduler.PRIORITY_HIGH,
+                new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        if (started.compareAndSet(false, true))
+                            write();
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Stops the export and deletes the partially written archive.
+     */
+    public void cancel() {
+        cancelled = true;
+        if (writer == null)
+            return;
+        if (started.compareAndSet(false, true)) {
+            // the writer never ran, so nobody else reports the result
+            writer.cancel(false);
+            postFailure(new InterruptedIOException("Export cancelled"));
+        } else {
+            writer.cancel(true);
+        }
+    }
+
+    private void write() {
+        final long start = SystemClock.elapsedRealtime();
+        boolean success = false;
+        try {
+            try (OutputStream out = new BufferedOutputStream(destination.open(), BUFFER_SIZE)) {
+                if (format == FORMAT_PDF)
+                    writePdf(out, start);
+                else
+                    writeZip(out, start);
+            }
+            success = true;
+        } catch (InterruptedException e) {
+            postFailure(new InterruptedIOException("Export cancelled"));
+        } catch (IOException | RuntimeException e) {
+            // e.g. a SecurityException from the content resolver, which fails the export too
+            if (!cancelled)
+                Log.e(TAG, "Export to " + destination.getLocation() + " failed", e);
+            postFailure(e instanceof IOException ? (IOException) e : new IOException(e));
+        } finally {
+            if (success)
+                destination.commit();
+            else
+                destination.abort();
+        }
+
+        if (success) {
+            float rate = getRate(ids.length, SystemClock.elapsedRealtime() - start);
+            Log.i(TAG, String.format(Locale.US, "Exported %d sketches (%d failed) at %.1f sketches/s",
+                    exported, failed, rate));
+            postFinished(exported, failed, rate);
+        }
+    }
+
+    private void writeZip(OutputStream out, long start) throws IOException, InterruptedException {
+        // below thumbnails, which the user sees load while the export runs
+        Executor workers = TaskScheduler.getInstance().getExecutor(TaskScheduler.POOL_CPU, TaskScheduler.PRIORITY_NORMAL);
+        // leaves a thread of the shared pool to the rest of the app
+        int maxRunning = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ArrayList<Future<Entry>> futures = new ArrayList<>(ids.length);
+        try {
+            CompletionService<Entry> completion = new ExecutorCompletionService<>(workers);
+            int submitted = 0;
+            while (submitted < Math.min(maxRunning, ids.length))
+                futures.add(submitWorker(completion, ids[submitted++]));
+
+            ZipOutputStream zip = new ZipOutputStream(out);
+            long lastReport = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (cancelled)
+                    throw new InterruptedIOException("Export cancelled");
+                Entry entry;
+                try {
+                    entry = completion.take().get();
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Cannot export sketch", e.getCause());
+                    entry = null;
+                }
+                if (submitted < ids.length)
+                    futures.add(submitWorker(completion, ids[submitted++]));
+                if (entry == null) {
+                    failed++;
+                } else {
+                    try {
+                        writeEntry(zip, entry);
+                    } finally {
+                        memory.release(entry.permits);
+                    }
+                    exported++;
+                }
+                lastReport = reportProgress(i + 1, start, lastReport);
+            }
+            zip.finish();
+        } finally {
+            for (Future<Entry> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    private Future<Entry> submitWorker(CompletionService<Entry> completion, final int id) {
+        return completion.submit(new Callable<Entry>() {
+            @Override
+            public Entry call() throws Exception {
+                return exportSketch(id);
+            }
+        });
+    }
+
+    /**
+     * Writes one page per sketch. Drawing vector pages is cheap compared to loading the
+     * sketches, and the pages have to be written in order, so this runs on the writer thread
+     * alone and holds only one sketch at a time.
+     */
+    private void writePdf(OutputStream out, long start) throws IOException {
+        try (PdfWriter pdf = new PdfWriter(out)) {
+            long lastReport = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (cancelled)
+                    throw new InterruptedIOException("Export cancelled");
+                Sketch sketch = roomHandler.getSketchSync(ids[i]);
+                if (sketch == null) {
+                    failed++;
+                } else {
+                    try {
+                        pdf.writePage(sketch);
+                    } catch (RuntimeException e) {
+                        // a page that failed halfway cannot be skipped
+                        throw new IOException("Cannot write page for sketch " + ids[i], e);
+                    }
+                    exported++;
+                }
+                lastReport = reportProgress(i + 1, start, lastReport);
+            }
+            pdf.finish();
+        }
+    }
+
+    /**
+     * Posts the progress if the last report is long enough ago or the export is complete, and
+     * returns the time of the last report.
+     */
+    private long reportProgress(int done, long start, long lastReport) {
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastReport < PROGRESS_INTERVAL && done < ids.length)
+            return lastReport;
+        postProgress(done, getRate(done, now - start));
+        return now;
+    }
+
+    private static float getRate(int count, long millis) {
+        return millis > 0 ? count * 1000.f / millis : 0;
+    }
+
+    /**
+     * Renders and encodes one sketch on a worker thread. Returns null if the sketch was deleted.
+     */
+    private Entry exportSketch(int id) throws IOException, InterruptedException {
+        Sketch sketch = roomHandler.getSketchSync(id);
+        if (sketch == null)
+            return null;
+        if (format == FORMAT_SVG)
+            return exportSvg(sketch);
+
+        LinkedHashMap<MyPath, PaintOptions> paths = sketch.getPaths();
+        Bitmap background = sketch.getBitmap();
+
+        Point size = new Point();
+        SketchRenderer.computeExportSize(paths, background, MAX_EXPORT_SIZE, DEFAULT_EXPORT_SIZE, size);
+        int width = size.x;
+        int height = size.y;
+
+        // a sketch larger than the whole budget is rendered alone
+        int permits = Math.min(toKiB((long) width * height * 4), memoryBudget);
+        memory.acquire(permits);
+        try {
+            EntryBuffer data = new EntryBuffer(BUFFER_SIZE);
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            try {
+                SketchRenderer.render(bitmap, background, paths);
+                if (background != null)
+                    background.recycle();
+                (format == FORMAT_JPEG ? EncoderProfile.EXPORT_JPEG : EncoderProfile.EXPORT_PNG)
+                        .createEncoder(bitmap).encode(data, NO_PROGRESS);
+            } finally {
+                bitmap.recycle();
+            }
+
+            return createEntry(sketch, data, permits);
+        } catch (IOException | RuntimeException | Error e) {
+            memory.release(permits);
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes one sketch as SVG, which needs no bitmap. The budget is charged with an estimate
+     * of the text size instead, derived from the stored strokes and background.
+     */
+    private Entry exportSvg(Sketch sketch) throws IOException, InterruptedException {
+        long estimate = sketch.paths.length * 2L + sketch.getBitmapBlob().length * 4L / 3 + BUFFER_SIZE;
+        int permits = Math.min(toKiB(estimate), memoryBudget);
+        memory.acquire(permits);
+        try {
+            EntryBuffer data = new EntryBuffer((int) Math.min(estimate, Integer.MAX_VALUE));
+            new SvgEncoder(sketch).encode(data, NO_PROGRESS);
+            return createEntry(sketch, data, permits);
+        } catch (IOException | RuntimeException | Error e) {
+            memory.release(permits);
+            throw e;
+        }
+    }
+
+    /**
+     * Keeps only the size of the encoded data charged against the budget until the writer has
+     * stored the entry, and releases the rest of the given permits.
+     */
+    private Entry createEntry(Sketch sketch, EntryBuffer data, int permits) {
+        CRC32 crc = new CRC32();
+        crc.update(data.getBuffer(), 0, data.size());
+
+        int entryPermits = Math.min(toKiB(data.size()), permits);
+        memory.release(permits - entryPermits);
+        return new Entry(getEntryName(sketch), sketch.getModifiedAt(), data, crc.getValue(), entryPermits);
+    }
+
+    private static int toKiB(long bytes) {
+        return (int) ((bytes + 1023) / 1024);
+    }
+
+    private String getEntryName(Sketch sketch) {
+        String base = sketch.getDescription() == null ? "" : sketch.getDescription()
+                .replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        if (base.isEmpty())
+            base = "sketch-" + sketch.getId();
+        String extension = "." + getExtension(format);
+        synchronized (entryNames) {
+            String name = base + extension;
+            for (int i = 2; !entryNames.add(name.toLowerCase(Locale.ROOT)); i++)
+                name = base + " (" + i + ")" + extension;
+            return name;
+        }
+    }
+
+    private void writeEntry(ZipOutputStream zip, Entry entry) throws IOException {
+        ZipEntry zipEntry = new ZipEntry(entry.name);
+        if (format != FORMAT_SVG) {
+            // PNG and JPEG are compressed already, so deflating them again would only cost time
+            zipEntry.setMethod(ZipEntry.STORED);
+            zipEntry.setSize(entry.data.size());
+            zipEntry.setCompressedSize(entry.data.size());
+            zipEntry.setCrc(entry.crc);
+        }
+        if (entry.time > 0)
+            zipEntry.setTime(entry.time);
+        zip.putNextEntry(zipEntry);
+        zip.write(entry.data.getBuffer(), 0, entry.data.size());
+        zip.closeEntry();
+    }
+
+    private void postProgress(final int done, final float sketchesPerSecond) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                BatchExporter.this.done = done;
+                BatchExporter.this.sketchesPerSecond = sketchesPerSecond;
+                if (listener != null)
+                    listener.onBatchProgress(done, ids.length, sketchesPerSecond);
+            }
+        });
+    }
+
+    private void postFinished(final int exported, final int failed, final float sketchesPerSecond) {
+        postResult(new Runnable() {
+            @Override
+            public void run() {
+                listener.onBatchFinished(exported, failed, sketchesPerSecond);
+            }
+        });
+    }
+
+    private void postFailure(final IOException e) {
+        postResult(new Runnable() {
+            @Override
+            public void run() {
+                listener.onBatchFailed(e);
+            }
+        });
+    }
+
+    /**
+     * Delivers the result to the listener, or keeps it until a listener is attached.
+     */
+    private void postResult(final Runnable result) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (listener != null)
+                    result.run();
+                else
+                    pendingResult = result;
+            }
+        });
+    }
+}
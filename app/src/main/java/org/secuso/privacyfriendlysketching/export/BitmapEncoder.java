@@ -0,0 +1,55 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses a rendered bitmap with the platform encoder, using the settings and the timing of
+ * an {@link EncoderProfile}.
+ */
+
+public class BitmapEncoder implements Encoder {
+    private final Bitmap bitmap;
+    private final EncoderProfile profile;
+
+    public BitmapEncoder(Bitmap bitmap, EncoderProfile profile) {
+        this.bitmap = bitmap;
+        this.profile = profile;
+    }
+
+    @Override
+    public String getMimeType() {
+        return profile.getMimeType();
+    }
+
+    @Override
+    public String getExtension() {
+        return profile.getExtension();
+    }
+
+    @Override
+    public void encode(OutputStream out, ProgressListener listener) throws IOException {
+        // the platform encoder does not report its progress
+        listener.onProgress(-1);
+        profile.compress(bitmap, out);
+        listener.onProgress(100);
+    }
+}
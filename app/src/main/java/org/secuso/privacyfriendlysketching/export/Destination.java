@@ -0,0 +1,41 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A place an export is written to. {@link #open()} is called once; afterwards either
+ * {@link #commit()} or {@link #abort()} is called, depending on whether encoding succeeded.
+ */
+
+public interface Destination {
+    OutputStream open() throws IOException;
+
+    void commit();
+
+    /**
+     * Removes whatever was written so far.
+     */
+    void abort();
+
+    /**
+     * A description of the written file for the user, e.g. its path.
+     */
+    String getLocation();
+}
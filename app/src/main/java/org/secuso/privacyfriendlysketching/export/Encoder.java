@@ -0,0 +1,42 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an exported sketch in one file format to a stream.
+ */
+
+public interface Encoder {
+    interface ProgressListener {
+        /**
+         * Called on the export thread with the progress in percent, or -1 if it is unknown.
+         */
+        void onProgress(int percent);
+    }
+
+    String getMimeType();
+
+    String getExtension();
+
+    /**
+     * Encodes the sketch to the given stream, which is buffered and closed by the caller.
+     */
+    void encode(OutputStream out, ProgressListener listener) throws IOException;
+}
@@ -0,0 +1,195 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.divyanshu.draw.widget.MyPath;
+import com.divyanshu.draw.widget.PaintOptions;
+
+import org.secuso.privacyfriendlysketching.database.RoomHandler;
+import org.secuso.privacyfriendlysketching.database.Sketch;
+import org.secuso.privacyfriendlysketching.database.SketchInfo;
+import org.secuso.privacyfriendlysketching.helpers.SketchRenderer;
+import org.secuso.privacyfriendlysketching.helpers.TaskScheduler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Measures encode time and size of every {@link EncoderProfile}, and of a few alternatives, on
+ * the most recently modified sketches. Each sketch is rendered once and encoded by every profile
+ * from the same bitmap, so the results are comparable.
+ */
+
+public class EncoderBenchmark {
+    private final static String TAG = "EncoderBenchmark";
+    private final static int SAMPLE_COUNT = 3;
+    private final static int MAX_SIZE = 2048;
+    private final static int DEFAULT_SIZE = 1024;
+    private final static int RUNS = 3;
+
+    private final static EncoderProfile[] ALTERNATIVES = {
+            new EncoderProfile("webp_lossy", Bitmap.CompressFormat.WEBP, 90),
+            new EncoderProfile("jpeg_75", Bitmap.CompressFormat.JPEG, 75),
+            new EncoderProfile("jpeg_100", Bitmap.CompressFormat.JPEG, 100),
+    };
+
+    public interface Listener {
+        /**
+         * Called on the UI thread after each sketch.
+         */
+        void onBenchmarkProgress(int done, int total);
+
+        /**
+         * Called on the UI thread with one result per profile, summed over all sketches.
+         */
+        void onBenchmarkFinished(List<Result> results, int sketches);
+    }
+
+    public static class Result {
+        public final EncoderProfile profile;
+        /**
+         * The median encode time in nanoseconds. Summed unrounded, so encodes that take less
+         * than a millisecond each still add up.
+         */
+        public long nanos;
+        public long bytes;
+
+        Result(EncoderProfile profile) {
+            this.profile = profile;
+        }
+
+        public double getMillis() {
+            return nanos / 1e6;
+        }
+    }
+
+    private final RoomHandler roomHandler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public EncoderBenchmark(RoomHandler roomHandler) {
+        this.roomHandler = roomHandler;
+    }
+
+    public void start(final Listener listener) {
+        TaskScheduler.getInstance().submit(TaskScheduler.POOL_CPU, TaskScheduler.PRIORITY_NORMAL, new Callable<Void>() {
+            @Override
+            public Void call() {
+                run(listener);
+                return null;
+            }
+        });
+    }
+
+    private void run(final Listener listener) {
+        final ArrayList<Result> results = new ArrayList<>();
+        for (EncoderProfile profile : EncoderProfile.getProfiles())
+            results.add(new Result(profile));
+        for (EncoderProfile profile : ALTERNATIVES)
+            results.add(new Result(profile));
+
+        SketchInfo[] infos = roomHandler.getSketchInfos(RoomHandler.SORT_MODIFIED);
+        final int total = Math.min(infos.length, SAMPLE_COUNT);
+        CountingOutputStream out = new CountingOutputStream();
+        long[] times = new long[RUNS];
+        for (int i = 0; i < total; i++) {
+            Sketch sketch = roomHandler.getSketchSync(infos[i].id);
+            if (sketch != null) {
+                Bitmap bitmap = render(sketch);
+                try {
+                    for (Result result : results)
+                        measure(result, bitmap, out, times);
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot encode sketch " + sketch.id, e);
+                } finally {
+                    bitmap.recycle();
+                }
+            }
+
+            final int done = i + 1;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onBenchmarkProgress(done, total);
+                }
+            });
+        }
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onBenchmarkFinished(results, total);
+            }
+        });
+    }
+
+    private static Bitmap render(Sketch sketch) {
+        LinkedHashMap<MyPath, PaintOptions> paths = sketch.getPaths();
+        Bitmap background = sketch.getBitmap();
+        Point size = new Point();
+        SketchRenderer.computeExportSize(paths, background, MAX_SIZE, DEFAULT_SIZE, size);
+        Bitmap bitmap = Bitmap.createBitmap(size.x, size.y, Bitmap.Config.ARGB_8888);
+        SketchRenderer.render(bitmap, background, paths);
+        if (background != null)
+            background.recycle();
+        return bitmap;
+    }
+
+    /**
+     * Encodes once to warm up and then {@link #RUNS} times, adding the median time.
+     */
+    private static void measure(Result result, Bitmap bitmap, CountingOutputStream out, long[] times) throws IOException {
+        result.profile.compress(bitmap, out);
+        for (int run = 0; run < RUNS; run++) {
+            out.count = 0;
+            long start = SystemClock.elapsedRealtimeNanos();
+            result.profile.compress(bitmap, out);
+            times[run] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        Arrays.sort(times);
+        result.nanos += times[RUNS / 2];
+        result.bytes += out.count;
+    }
+
+    /**
+     * Discards the encoded data and only counts it.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import org.secuso.privacyfriendlysketching.helpers.Metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A named choice of format and quality for one use of compressed bitmaps, so the trade-off
+ * between encode time, size and fidelity is made in one place and can be measured with
+ * {@link EncoderBenchmark}.
+ */
+
+public final class EncoderProfile {
+    // Bitmap.CompressFormat.WEBP is lossless at quality 100 only from Android Q on
+    private final static int WEBP_LOSSLESS_SDK = 29;
+
+    /**
+     * Backgrounds are stored in the database and encoded again on every save, so they have to
+     * be lossless. Older blobs in PNG stay readable, since decoding detects the format.
+     */
+    public final static EncoderProfile BACKGROUND = Build.VERSION.SDK_INT >= WEBP_LOSSLESS_SDK
+            ? new EncoderProfile("background", Bitmap.CompressFormat.WEBP, 100)
+            : new EncoderProfile("background", Bitmap.CompressFormat.PNG, 100);
+    public final static EncoderProfile THUMBNAIL = new EncoderProfile("thumbnail", Bitmap.CompressFormat.WEBP, 90);
+    /**
+     * Shared images are opened by arbitrary apps, which all read PNG.
+     */
+    public final static EncoderProfile SHARE = new EncoderProfile("share", Bitmap.CompressFormat.PNG, 100);
+    public final static EncoderProfile GALLERY = new EncoderProfile("gallery", Bitmap.CompressFormat.JPEG, 50);
+    /**
+     * Above 90 the files grow quickly without a visible difference in drawings.
+     */
+    public final static EncoderProfile EXPORT_JPEG = new EncoderProfile("export_jpeg", Bitmap.CompressFormat.JPEG, 90);
+    public final static EncoderProfile EXPORT_PNG = new EncoderProfile("export_png", Bitmap.CompressFormat.PNG, 100);
+
+    private final static EncoderProfile[] PROFILES = {BACKGROUND, THUMBNAIL, SHARE, GALLERY, EXPORT_JPEG, EXPORT_PNG};
+
+    private final String name;
+    private final Bitmap.CompressFormat format;
+    private final int quality;
+    private final String metricName;
+
+    public EncoderProfile(String name, Bitmap.CompressFormat format, int quality) {
+        this.name = name;
+        this.format = format;
+        this.quality = quality;
+        this.metricName = "codec.encode." + name;
+    }
+
+    /**
+     * Returns the profiles the app uses.
+     */
+    public static EncoderProfile[] getProfiles() {
+        return PROFILES.clone();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Bitmap.CompressFormat getFormat() {
+        return format;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public String getMimeType() {
+        switch (format) {
+            case PNG:
+                return "image/png";
+            case WEBP:
+                return "image/webp";
+            default:
+                return "image/jpeg";
+        }
+    }
+
+    public String getExtension() {
+        switch (format) {
+            case PNG:
+                return "png";
+            case WEBP:
+                return "webp";
+            default:
+                return "jpg";
+        }
+    }
+
+    public Encoder createEncoder(Bitmap bitmap) {
+        return new BitmapEncoder(bitmap, this);
+    }
+
+    public void compress(Bitmap bitmap, OutputStream out) throws IOException {
+        long start = Metrics.begin(metricName);
+        try {
+            if (!bitmap.compress(format, quality, out))
+                throw new IOException("Cannot compress bitmap as " + name);
+        } finally {
+            Metrics.end(metricName, start);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + format + " " + quality + ")";
+    }
+}
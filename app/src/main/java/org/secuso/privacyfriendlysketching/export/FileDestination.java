@@ -0,0 +1,65 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an export to a file and announces it to the media scanner, which indexes the file as
+ * it is instead of decoding and encoding it again.
+ */
+
+public class FileDestination implements Destination {
+    private final Context context;
+    private final File file;
+    private final String mimeType;
+
+    public FileDestination(Context context, File file, String mimeType) {
+        this.context = context.getApplicationContext();
+        this.file = file;
+        this.mimeType = mimeType;
+    }
+
+    @Override
+    public OutputStream open() throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+        return new FileOutputStream(file);
+    }
+
+    @Override
+    public void commit() {
+        MediaScannerConnection.scanFile(context, new String[]{file.getAbsolutePath()}, new String[]{mimeType}, null);
+    }
+
+    @Override
+    public void abort() {
+        file.delete();
+    }
+
+    @Override
+    public String getLocation() {
+        return file.getAbsolutePath();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an export as a new image of the system gallery. The encoded bytes are streamed into
+ * the media store entry, so the image is encoded exactly once.
+ */
+
+public class MediaStoreDestination implements Destination {
+    private final ContentResolver contentResolver;
+    private final String title;
+    private final String mimeType;
+    private Uri uri;
+
+    public MediaStoreDestination(ContentResolver contentResolver, String title, String mimeType) {
+        this.contentResolver = contentResolver;
+        this.title = title;
+        this.mimeType = mimeType;
+    }
+
+    @Override
+    public OutputStream open() throws IOException {
+        long now = System.currentTimeMillis();
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Images.Media.TITLE, title);
+        values.put(MediaStore.Images.Media.DISPLAY_NAME, title);
+        values.put(MediaStore.Images.Media.MIME_TYPE, mimeType);
+        values.put(MediaStore.Images.Media.DATE_ADDED, now / 1000);
+        values.put(MediaStore.Images.Media.DATE_TAKEN, now);
+        uri = contentResolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+        if (uri == null)
+            throw new IOException("Cannot create media store entry");
+        OutputStream out = contentResolver.openOutputStream(uri);
+        if (out == null)
+            throw new IOException("Cannot open " + uri);
+        return out;
+    }
+
+    @Override
+    public void commit() {
+    }
+
+    @Override
+    public void abort() {
+        if (uri == null)
+            return;
+        try {
+            contentResolver.delete(uri, null, null);
+        } catch (RuntimeException e) {
+            Log.w("MediaStoreDestination", "Cannot delete " + uri, e);
+        }
+    }
+
+    @Override
+    public String getLocation() {
+        return uri == null ? title : uri.toString();
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.RectF;
+
+import com.divyanshu.draw.widget.MyPath;
+import com.divyanshu.draw.widget.PaintOptions;
+
+import org.secuso.privacyfriendlysketching.database.Sketch;
+import org.secuso.privacyfriendlysketching.helpers.SketchRenderer;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a PDF document with one page per sketch, drawing the strokes as vector paths.
+ *
+ * {@link android.graphics.pdf.PdfDocument} keeps every page until the whole document is
+ * written, so its memory grows with the page count. This writer streams each page to the output
+ * as soon as it is added and only remembers the offsets of the written objects for the cross
+ * reference table at the end.
+ */
+
+public class PdfWriter implements Closeable {
+    private final static int CATALOG = 1;
+    private final static int PAGES = 2;
+    private final static int DEFAULT_SIZE = 1024;
+    /** The largest page size in points that PDF viewers are required to support. */
+    private final static float MAX_PAGE_SIZE = 14400;
+    private final static int BUFFER_SIZE = 8 * 1024;
+
+    private final CountingOutputStream out;
+    private final Deflater deflater = new Deflater();
+    private long[] offsets = new long[64];
+    private int objectCount = PAGES;
+    private int[] pages = new int[16];
+    private int pageCount = 0;
+
+    /**
+     * Counts the written bytes for the cross reference table and ignores close, so streams of
+     * single objects can be finished without closing the document.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    public PdfWriter(OutputStream out) throws IOException {
+        this.out = new CountingOutputStream(out);
+        write("%PDF-1.4\n");
+        // a comment with high bytes marks the file as binary for transfer programs
+        this.out.write(new byte[]{'%', (byte) 0xe2, (byte) 0xe3, (byte) 0xcf, (byte) 0xd3, '\n'});
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Writes a page showing the area of the sketch that {@link SketchRenderer} renders, at one
+     * point per pixel of the editor unless that exceeds the maximum page size.
+     */
+    public void writePage(Sketch sketch) throws IOException {
+        LinkedHashMap<MyPath, PaintOptions> paths = sketch.getPaths();
+        Bitmap background = sketch.getBitmap();
+        try {
+            RectF bounds = new RectF();
+            SketchRenderer.computeBounds(paths, bounds);
+            if (bounds.width() <= 0 || bounds.height() <= 0) {
+                float width = background != null && background.getWidth() > 1 ? background.getWidth() : DEFAULT_SIZE;
+                float height = background != null && background.getHeight() > 1 ? background.getHeight() : DEFAULT_SIZE;
+                bounds.set(-width / 2, -height / 2, width / 2, height / 2);
+            }
+            float scale = Math.min(1.f, MAX_PAGE_SIZE / Math.max(bounds.width(), bounds.height()));
+
+            boolean[] alphas = new boolean[256];
+            if (paths != null) {
+                for (PaintOptions options : paths.values())
+                    alphas[options.getAlpha() & 0xff] = true;
+            }
+            boolean image = background != null && (background.getWidth() > 1 || background.getHeight() > 1);
+
+            int page = newObject();
+            int contents = newObject();
+            int contentsLength = newObject();
+            int imageObject = image ? newObject() : 0;
+            int imageLength = image ? newObject() : 0;
+
+            beginObject(page);
+            write(String.format(Locale.US, "<< /Type /Page /Parent %d 0 R /MediaBox [0 0 %.2f %.2f] /Contents %d 0 R\n",
+                    PAGES, bounds.width() * scale, bounds.height() * scale, contents));
+            write("/Resources << /ExtGState <<");
+            for (int alpha = 0; alpha < 255; alpha++) {
+                if (alphas[alpha])
+                    write(String.format(Locale.US, " /A%d << /CA %.3f >>", alpha, alpha / 255.f));
+            }
+            write(" /A255 << /CA 1 >> >>");
+            if (image)
+                write(String.format(Locale.US, " /XObject << /Im0 %d 0 R >>", imageObject));
+            write(" >> >>\n");
+            endObject();
+
+            beginObject(contents);
+            write(String.format(Locale.US, "<< /Length %d 0 R /Filter /FlateDecode >>\nstream\n", contentsLength));
+            long start = out.count;
+            deflater.reset();
+            DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            Writer writer = new OutputStreamWriter(deflated, "US-ASCII");
+            writeContents(writer, paths, background, bounds, scale);
+            writer.flush();
+            deflated.finish();
+            long length = out.count - start;
+            write("\nendstream\n");
+            endObject();
+            writeLength(contentsLength, length);
+
+            if (image)
+                writeImage(imageObject, imageLength, background);
+
+            if (pageCount == pages.length)
+                pages = Arrays.copyOf(pages, pageCount * 2);
+            pages[pageCount++] = page;
+        } finally {
+            if (background != null)
+                background.recycle();
+        }
+    }
+
+    /**
+     * Writes the trailing objects and the cross reference table, which completes the document.
+     * The underlying stream is flushed but not closed.
+     */
+    public void finish() throws IOException {
+        beginObject(PAGES);
+        write("<< /Type /Pages /Kids [");
+        for (int i = 0; i < pageCount; i++)
+            write(pages[i] + " 0 R ");
+        write("] /Count " + pageCount + " >>\n");
+        endObject();
+
+        beginObject(CATALOG);
+        write("<< /Type /Catalog /Pages " + PAGES + " 0 R >>\n");
+        endObject();
+
+        long xref = out.count;
+        write("xref\n0 " + (objectCount + 1) + "\n0000000000 65535 f \n");
+        for (int i = 1; i <= objectCount; i++)
+            write(String.format(Locale.US, "%010d 00000 n \n", offsets[i]));
+        write("trailer\n<< /Size " + (objectCount + 1) + " /Root " + CATALOG + " 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+        out.flush();
+    }
+
+    /**
+     * Releases the compressor. The underlying stream is left open, and a document that was not
+     * finished before is incomplete.
+     */
+    @Override
+    public void close() {
+        deflater.end();
+    }
+
+    private void writeContents(Writer writer, LinkedHashMap<MyPath, PaintOptions> paths, Bitmap background,
+                               RectF bounds, float scale) throws IOException {
+        // the page is white like the rendered images
+        writer.write(String.format(Locale.US, "1 g 0 0 %.2f %.2f re f\n", bounds.width() * scale, bounds.height() * scale));
+        // from here on, coordinates are those of the editor with the y axis pointing down
+        writer.write(String.format(Locale.US, "%.4f 0 0 %.4f %.2f %.2f cm\n",
+                scale, -scale, -bounds.left * scale, bounds.bottom * scale));
+
+        if (background != null && background.getWidth() == 1 && background.getHeight() == 1) {
+            writeColor(writer, background.getPixel(0, 0), "rg");
+            writer.write(String.format(Locale.US, "%.2f %.2f %.2f %.2f re f\n",
+                    bounds.left, bounds.top, bounds.width(), bounds.height()));
+        } else if (background != null) {
+            // the unit square of the image is flipped back, so its first row is at the top
+            float width = background.getWidth();
+            float height = background.getHeight();
+            writer.write(String.format(Locale.US, "q %.2f 0 0 %.2f %.2f %.2f cm /Im0 Do Q\n",
+                    width, -height, -width / 2, height / 2));
+        }
+
+        if (paths == null)
+            return;
+        writer.write("1 J 1 j\n");
+        int alpha = 255;
+        int color = Color.BLACK;
+        float width = 1;
+        writer.write("0 G 1 w\n");
+        for (Map.Entry<MyPath, PaintOptions> pair : paths.entrySet()) {
+            PaintOptions options = pair.getValue();
+            if ((options.getAlpha() & 0xff) != alpha) {
+                alpha = options.getAlpha() & 0xff;
+                writer.write("/A" + alpha + " gs\n");
+            }
+            if ((options.getColor() & 0xffffff) != (color & 0xffffff)) {
+                color = options.getColor();
+                writeColor(writer, color, "RG");
+            }
+            if (options.getStrokeWidth() != width) {
+                width = options.getStrokeWidth();
+                writer.write(String.format(Locale.US, "%.2f w\n", width));
+            }
+            pair.getKey().writePdf(writer);
+            writer.write("S\n");
+        }
+    }
+
+    private static void writeColor(Writer writer, int color, String operator) throws IOException {
+        writer.write(String.format(Locale.US, "%.3f %.3f %.3f %s\n",
+                Color.red(color) / 255.f, Color.green(color) / 255.f, Color.blue(color) / 255.f, operator));
+    }
+
+    /**
+     * Embeds the background as JPEG, which PDF readers decode natively. Transparent parts are
+     * composed onto white first, since JPEG has no alpha channel.
+     */
+    private void writeImage(int object, int lengthObject, Bitmap background) throws IOException {
+        Bitmap opaque = background;
+        if (background.hasAlpha()) {
+            opaque = Bitmap.createBitmap(background.getWidth(), background.getHeight(), Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(opaque);
+            canvas.drawColor(Color.WHITE);
+            canvas.drawBitmap(background, 0, 0, null);
+        }
+        try {
+            beginObject(object);
+            write(String.format(Locale.US, "<< /Type /XObject /Subtype /Image /Width %d /Height %d "
+                            + "/ColorSpace /DeviceRGB /BitsPerComponent 8 /Filter /DCTDecode /Length %d 0 R >>\nstream\n",
+                    opaque.getWidth(), opaque.getHeight(), lengthObject));
+            long start = out.count;
+            EncoderProfile.EXPORT_JPEG.compress(opaque, out);
+            long length = out.count - start;
+            write("\nendstream\n");
+            endObject();
+            writeLength(lengthObject, length);
+        } finally {
+            if (opaque != background)
+                opaque.recycle();
+        }
+    }
+
+    /**
+     * Writes the length of a stream as its own object, so the stream can be written before its
+     * length is known.
+     */
+    private void writeLength(int object, long length) throws IOException {
+        beginObject(object);
+        write(length + "\n");
+        endObject();
+    }
+
+    private int newObject() {
+        objectCount++;
+        if (objectCount >= offsets.length)
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        return objectCount;
+    }
+
+    private void beginObject(int object) throws IOException {
+        offsets[object] = out.count;
+        write(object + " 0 obj\n");
+    }
+
+    private void endObject() throws IOException {
+        write("endobj\n");
+    }
+
+    private void write(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++)
+            out.write(text.charAt(i));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.secuso.privacyfriendlysketching.helpers.TaskScheduler;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs exports one at a time on the CPU pool of the {@link TaskScheduler}: the encoder writes
+ * through a buffer straight into the destination, and progress and the result are reported on
+ * the UI thread.
+ */
+
+public class SketchExporter {
+    private final static String TAG = "SketchExporter";
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    public interface Listener {
+        /**
+         * Called on the UI thread with the progress in percent, or -1 if it is unknown.
+         */
+        void onExportProgress(int percent);
+
+        void onExportFinished(String location);
+
+        void onExportFailed(IOException e);
+    }
+
+    private static SketchExporter instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // exports run in the order they were started, like on a single thread
+    private final Executor executor = TaskScheduler.getInstance()
+            .newSerialExecutor(TaskScheduler.POOL_CPU, TaskScheduler.PRIORITY_HIGH);
+
+    private SketchExporter() {
+    }
+
+    public static synchronized SketchExporter getInstance() {
+        if (instance == null)
+            instance = new SketchExporter();
+        return instance;
+    }
+
+    public void export(final Encoder encoder, final Destination destination, final Listener listener) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(encoder, destination, new Encoder.ProgressListener() {
+                        private int last = Integer.MIN_VALUE;
+
+                        @Override
+                        public void onProgress(final int percent) {
+                            if (percent == last)
+                                return;
+                            last = percent;
+                            mainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    listener.onExportProgress(percent);
+                                }
+                            });
+                        }
+                    });
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onExportFinished(destination.getLocation());
+                        }
+                    });
+                } catch (IOException | RuntimeException e) {
+                    // e.g. a SecurityException from the content resolver, which fails the export too
+                    final IOException failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                    Log.e(TAG, "Export to " + destination.getLocation() + " failed", e);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onExportFailed(failure);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Encodes into the destination on the calling thread, removing partial output on failure.
+     */
+    static void write(Encoder encoder, Destination destination, Encoder.ProgressListener listener) throws IOException {
+        boolean success = false;
+        try {
+            try (OutputStream out = new BufferedOutputStream(destination.open(), BUFFER_SIZE)) {
+                encoder.encode(out, listener);
+            }
+            success = true;
+        } finally {
+            if (success)
+                destination.commit();
+            else
+                destination.abort();
+        }
+    }
+}
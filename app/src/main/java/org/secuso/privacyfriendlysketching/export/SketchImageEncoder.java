@@ -0,0 +1,83 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+
+import com.divyanshu.draw.widget.MyPath;
+import com.divyanshu.draw.widget.PaintOptions;
+
+import org.secuso.privacyfriendlysketching.database.Sketch;
+import org.secuso.privacyfriendlysketching.helpers.SketchRenderer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+
+/**
+ * Renders a snapshot of a sketch and compresses it with an {@link EncoderProfile}. Both happen
+ * in {@link #encode}, i.e. on the export thread, and the bitmap only exists during the encode.
+ */
+
+public class SketchImageEncoder implements Encoder {
+    private final Sketch sketch;
+    private final EncoderProfile profile;
+    private final int maxSize;
+    private final int defaultSize;
+
+    /**
+     * @param maxSize     the upper bound of the longer side of the image in pixels
+     * @param defaultSize the size of sketches without strokes or background image
+     */
+    public SketchImageEncoder(Sketch sketch, EncoderProfile profile, int maxSize, int defaultSize) {
+        this.sketch = sketch;
+        this.profile = profile;
+        this.maxSize = maxSize;
+        this.defaultSize = defaultSize;
+    }
+
+    @Override
+    public String getMimeType() {
+        return profile.getMimeType();
+    }
+
+    @Override
+    public String getExtension() {
+        return profile.getExtension();
+    }
+
+    @Override
+    public void encode(OutputStream out, ProgressListener listener) throws IOException {
+        // neither rendering nor the platform encoder report their progress
+        listener.onProgress(-1);
+        LinkedHashMap<MyPath, PaintOptions> paths = sketch.getPaths();
+        Bitmap background = sketch.getBitmap();
+        Point size = new Point();
+        SketchRenderer.computeExportSize(paths, background, maxSize, defaultSize, size);
+        Bitmap bitmap = Bitmap.createBitmap(size.x, size.y, Bitmap.Config.ARGB_8888);
+        try {
+            SketchRenderer.render(bitmap, background, paths);
+            profile.compress(bitmap, out);
+        } finally {
+            bitmap.recycle();
+            if (background != null)
+                background.recycle();
+        }
+        listener.onProgress(100);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import android.graphics.BitmapFactory;
+import android.graphics.RectF;
+import android.util.Base64;
+import android.util.Base64OutputStream;
+
+import com.divyanshu.draw.core.PathData;
+import com.divyanshu.draw.widget.MyPath;
+import com.divyanshu.draw.widget.PaintOptions;
+
+import org.secuso.privacyfriendlysketching.database.Sketch;
+import org.secuso.privacyfriendlysketching.helpers.SketchRenderer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes a sketch as SVG, with one path element per stroke. The strokes are streamed from their
+ * stored segments and the background is embedded once as the stored image, without decoding it.
+ * The view box matches the area that {@link SketchRenderer} renders.
+ */
+
+public class SvgEncoder implements Encoder {
+    private final static int DEFAULT_SIZE = 1024;
+    private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Sketch sketch;
+    private final char[] buffer = new char[PathData.SVG_NUMBER_BUFFER_SIZE];
+
+    public SvgEncoder(Sketch sketch) {
+        this.sketch = sketch;
+    }
+
+    @Override
+    public String getMimeType() {
+        return "image/svg+xml";
+    }
+
+    @Override
+    public String getExtension() {
+        return "svg";
+    }
+
+    @Override
+    public void encode(OutputStream out, ProgressListener listener) throws IOException {
+        listener.onProgress(0);
+        LinkedHashMap<MyPath, PaintOptions> paths = sketch.getPaths();
+        byte[] background = sketch.getBitmapBlob();
+
+        BitmapFactory.Options backgroundSize = new BitmapFactory.Options();
+        backgroundSize.outWidth = 0;
+        backgroundSize.outHeight = 0;
+        if (background != null && background.length > 0) {
+            backgroundSize.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(background, 0, background.length, backgroundSize);
+        }
+
+        RectF bounds = new RectF();
+        SketchRenderer.computeBounds(paths, bounds);
+        if (bounds.width() <= 0 || bounds.height() <= 0) {
+            float width = backgroundSize.outWidth > 1 ? backgroundSize.outWidth : DEFAULT_SIZE;
+            float height = backgroundSize.outHeight > 1 ? backgroundSize.outHeight : DEFAULT_SIZE;
+            bounds.set(-width / 2, -height / 2, width / 2, height / 2);
+        }
+
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\"");
+        writeAttribute(writer, "width", bounds.width());
+        writeAttribute(writer, "height", bounds.height());
+        writer.write(" viewBox=\"");
+        writeNumber(writer, bounds.left);
+        writer.write(' ');
+        writeNumber(writer, bounds.top);
+        writer.write(' ');
+        writeNumber(writer, bounds.width());
+        writer.write(' ');
+        writeNumber(writer, bounds.height());
+        writer.write("\">\n");
+
+        writer.write("<rect");
+        writeRect(writer, bounds.left, bounds.top, bounds.width(), bounds.height());
+        writer.write(" fill=\"#ffffff\"/>\n");
+        if (backgroundSize.outWidth == 1 && backgroundSize.outHeight == 1) {
+            // a single pixel background is a plain color that fills the whole sketch
+            int color = BitmapFactory.decodeByteArray(background, 0, background.length).getPixel(0, 0);
+            writer.write("<rect");
+            writeRect(writer, bounds.left, bounds.top, bounds.width(), bounds.height());
+            writer.write(" fill=\"");
+            writeColor(writer, color);
+            writer.write("\"/>\n");
+        } else if (backgroundSize.outWidth > 0 && backgroundSize.outHeight > 0) {
+            writer.write("<image preserveAspectRatio=\"none\"");
+            writeRect(writer, -backgroundSize.outWidth / 2.f, -backgroundSize.outHeight / 2.f,
+                    backgroundSize.outWidth, backgroundSize.outHeight);
+            writer.write(" xlink:href=\"data:");
+            writer.write(backgroundSize.outMimeType != null ? backgroundSize.outMimeType : "image/png");
+            writer.write(";base64,");
+            // the encoded image goes to the stream directly, behind everything written so far
+            writer.flush();
+            Base64OutputStream base64 = new Base64OutputStream(out, Base64.NO_WRAP | Base64.NO_CLOSE);
+            base64.write(background);
+            base64.close();
+            writer.write("\"/>\n");
+        }
+
+        if (paths != null) {
+            long totalPoints = 0;
+            for (MyPath path : paths.keySet())
+                totalPoints += path.getPointCount();
+
+            writer.write("<g fill=\"none\" stroke-linecap=\"round\" stroke-linejoin=\"round\">\n");
+            long writtenPoints = 0;
+            for (Map.Entry<MyPath, PaintOptions> pair : paths.entrySet()) {
+                PaintOptions options = pair.getValue();
+                writer.write("<path stroke=\"");
+                writeColor(writer, options.getColor());
+                writer.write('"');
+                if (options.getAlpha() < 255)
+                    writeAttribute(writer, "stroke-opacity", options.getAlpha() / 255.f);
+                writeAttribute(writer, "stroke-width", options.getStrokeWidth());
+                writer.write(" d=\"");
+                pair.getKey().writeSvg(writer);
+                writer.write("\"/>\n");
+
+                writtenPoints += pair.getKey().getPointCount();
+                if (totalPoints > 0)
+                    listener.onProgress((int) (writtenPoints * 100 / totalPoints));
+            }
+            writer.write("</g>\n");
+        }
+        writer.write("</svg>\n");
+        writer.flush();
+        listener.onProgress(100);
+    }
+
+    private void writeNumber(Writer writer, float value) throws IOException {
+        writer.write(buffer, 0, PathData.formatSvgNumber(value, buffer, 0));
+    }
+
+    private void writeAttribute(Writer writer, String name, float value) throws IOException {
+        writer.write(' ');
+        writer.write(name);
+        writer.write("=\"");
+        writeNumber(writer, value);
+        writer.write('"');
+    }
+
+    private void writeRect(Writer writer, float x, float y, float width, float height) throws IOException {
+        writeAttribute(writer, "x", x);
+        writeAttribute(writer, "y", y);
+        writeAttribute(writer, "width", width);
+        writeAttribute(writer, "height", height);
+    }
+
+    /**
+     * Writes the RGB part of the color as #rrggbb. Opacity is written separately, because the
+     * renderer takes it from the paint options and not from the color.
+     */
+    private void writeColor(Writer writer, int color) throws IOException {
+        int rgb = color & 0xffffff;
+        buffer[0] = '#';
+        for (int i = 0; i < 6; i++)
+            buffer[6 - i] = HEX_DIGITS[(rgb >> (i * 4)) & 0xf];
+        writer.write(buffer, 0, 7);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.export;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an export into a document that the user picked with the storage access framework, so
+ * no storage permission is needed.
+ */
+
+public class UriDestination implements Destination {
+    private final ContentResolver contentResolver;
+    private final Uri uri;
+
+    public UriDestination(ContentResolver contentResolver, Uri uri) {
+        this.contentResolver = contentResolver;
+        this.uri = uri;
+    }
+
+    @Override
+    public OutputStream open() throws IOException {
+        // "w" alone does not truncate on every provider
+        OutputStream out = contentResolver.openOutputStream(uri, "wt");
+        if (out == null)
+            throw new IOException("Cannot open " + uri);
+        return out;
+    }
+
+    @Override
+    public void commit() {
+    }
+
+    @Override
+    public void abort() {
+        try {
+            DocumentsContract.deleteDocument(contentResolver, uri);
+        } catch (FileNotFoundException | RuntimeException e) {
+            Log.w("UriDestination", "Cannot delete " + uri, e);
+        }
+    }
+
+    @Override
+    public String getLocation() {
+        return uri.toString();
+    }
+}
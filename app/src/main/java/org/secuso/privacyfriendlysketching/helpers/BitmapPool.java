@@ -0,0 +1,101 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.helpers;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * A pool of mutable bitmaps that can be drawn or decoded into again instead of allocating a new
+ * bitmap for every thumbnail.
+ *
+ * Bitmaps that may be shared are reference counted: {@link #get(int, int, Bitmap.Config)}
+ * hands out a bitmap with one reference, {@link #acquire(Bitmap)} adds one and
+ * {@link #release(Bitmap)} drops one. Only when the last reference is gone, the bitmap becomes
+ * free for reuse, so a bitmap that is still cached or shown is never overwritten.
+ */
+
+public class BitmapPool {
+    private final int maxSize;
+    private final ArrayList<Bitmap> free = new ArrayList<>();
+    private final IdentityHashMap<Bitmap, Integer> references = new IdentityHashMap<>();
+    private int size = 0;
+
+    public BitmapPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns a bitmap of the given size and config with undefined content and one reference.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = takeFree(width, height, config);
+        if (bitmap == null)
+            bitmap = Bitmap.createBitmap(width, height, config);
+        acquire(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Removes a matching free bitmap from the pool without taking a reference, e.g. to pass it
+     * as {@link android.graphics.BitmapFactory.Options#inBitmap}. Returns null if there is none.
+     */
+    public synchronized Bitmap takeFree(int width, int height, Bitmap.Config config) {
+        for (int i = free.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = free.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                free.remove(i);
+                size -= bitmap.getByteCount();
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void acquire(Bitmap bitmap) {
+        Integer count = references.get(bitmap);
+        references.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    public synchronized void release(Bitmap bitmap) {
+        Integer count = references.get(bitmap);
+        if (count == null)
+            return;
+        if (count > 1) {
+            references.put(bitmap, count - 1);
+            return;
+        }
+        references.remove(bitmap);
+        if (!bitmap.isMutable() || bitmap.isRecycled())
+            return;
+        free.add(bitmap);
+        size += bitmap.getByteCount();
+        trimToSize(maxSize);
+    }
+
+    public synchronized void trimToSize(int maxSize) {
+        // dropped bitmaps are not recycled but left to the garbage collector
+        while (size > maxSize && !free.isEmpty())
+            size -= free.remove(0).getByteCount();
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.helpers;
+
+import android.os.Trace;
+
+import com.divyanshu.draw.metrics.Histogram;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An app-wide registry of named counters and latency histograms. Timed sections are also
+ * marked with {@link Trace}, so they show up in systrace next to the platform's own sections:
+ *
+ * <pre>
+ * long start = Metrics.begin("codec.deserializePaths");
+ * try {
+ *     ...
+ * } finally {
+ *     Metrics.end("codec.deserializePaths", start);
+ * }
+ * </pre>
+ *
+ * Durations are recorded in microseconds. Recording does not allocate once a name exists, so it
+ * is cheap enough to stay enabled in release builds.
+ */
+
+public class Metrics {
+    private final static ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final static ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it on first use.
+     */
+    public static Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram(name);
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null)
+                histogram = created;
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the counter with the given name, creating it on first use.
+     */
+    public static AtomicLong counter(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null)
+                counter = created;
+        }
+        return counter;
+    }
+
+    public static void count(String name) {
+        counter(name).incrementAndGet();
+    }
+
+    /**
+     * Starts a trace section and returns the start time for {@link #end(String, long)}, which
+     * has to be called on the same thread.
+     */
+    public static long begin(String name) {
+        // section names are limited to 127 characters
+        Trace.beginSection(name.length() > 127 ? name.substring(0, 127) : name);
+        return System.nanoTime();
+    }
+
+    /**
+     * Ends the trace section and records its duration.
+     */
+    public static void end(String name, long start) {
+        histogram(name).record((System.nanoTime() - start) / 1000);
+        Trace.endSection();
+    }
+
+    public static Map<String, Histogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    public static Map<String, Long> getCounters() {
+        TreeMap<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet())
+            values.put(entry.getKey(), entry.getValue().get());
+        return values;
+    }
+
+    public static void reset() {
+        for (Histogram histogram : histograms.values())
+            histogram.reset();
+        for (AtomicLong counter : counters.values())
+            counter.set(0);
+    }
+
+    /**
+     * Writes all histograms, counters and task pools in the CSV format of the draw metrics.
+     */
+    public static void writeCsv(Writer writer) throws IOException {
+        writer.write(Histogram.CSV_HEADER + "\n");
+        for (Histogram histogram : getHistograms().values())
+            writer.write(histogram.toCsv() + "\n");
+        for (Map.Entry<String, Long> counter : getCounters().entrySet())
+            writer.write(counter.getKey() + "," + counter.getValue() + ",,,,,\n");
+        for (TaskScheduler.Stats stats : TaskScheduler.getInstance().getStats()) {
+            String prefix = "pool." + stats.pool;
+            writer.write(prefix + ".queued," + stats.queueDepth + ",,,,,\n");
+            writer.write(prefix + ".completed," + stats.completed + ",,,,,\n");
+            writer.write(prefix + ".cancelled," + stats.cancelled + ",,,,,\n");
+        }
+    }
+}
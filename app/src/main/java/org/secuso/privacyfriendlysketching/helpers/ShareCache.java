@@ -0,0 +1,246 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.helpers;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.net.Uri;
+import android.support.v4.content.FileProvider;
+import android.util.Log;
+
+import com.divyanshu.draw.widget.MyPath;
+import com.divyanshu.draw.widget.PaintOptions;
+
+import org.secuso.privacyfriendlysketching.BuildConfig;
+import org.secuso.privacyfriendlysketching.database.Sketch;
+import org.secuso.privacyfriendlysketching.export.EncoderProfile;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Keeps the images of shared sketches in the cache directory, named by sketch id and version,
+ * so sharing an unchanged sketch again reuses the file instead of rendering it again.
+ *
+ * A share returns the content URI right away and renders the image in the background.
+ * {@link ShareProvider} waits for the pending rendering when the receiving app opens the URI,
+ * so the chooser does not have to wait for it.
+ */
+
+public class ShareCache {
+    private final static String TAG = "ShareCache";
+    public final static String AUTHORITY = BuildConfig.APPLICATION_ID + ".fileprovider";
+    private final static String DIRECTORY = "images";
+    private final static long MAX_SIZE = 32 * 1024 * 1024;
+    private final static int MAX_IMAGE_SIZE = 2048;
+    private final static int DEFAULT_IMAGE_SIZE = 1024;
+    private final static long RENDER_TIMEOUT = 30;
+
+    private static ShareCache instance;
+
+    private final Context context;
+    private final File directory;
+    private final HashMap<String, Future<File>> pending = new HashMap<>();
+    // the user waits for the rendering, but one at a time is enough
+    private final Executor executor = TaskScheduler.getInstance()
+            .newSerialExecutor(TaskScheduler.POOL_CPU, TaskScheduler.PRIORITY_HIGH);
+
+    private ShareCache(Context context) {
+        this.context = context.getApplicationContext();
+        directory = new File(this.context.getCacheDir(), DIRECTORY);
+    }
+
+    public static synchronized ShareCache getInstance(Context context) {
+        if (instance == null)
+            instance = new ShareCache(context);
+        return instance;
+    }
+
+    /**
+     * Returns the content URI of the image of the given saved sketch. If the image of this
+     * version is not cached yet, it is rendered in the background.
+     */
+    public Uri share(final Sketch sketch) {
+        final String name = "sketch_" + sketch.id + "_" + sketch.version + ".png";
+        final File file = new File(directory, name);
+        synchronized (pending) {
+            if (!pending.containsKey(name)) {
+                if (file.exists()) {
+                    Metrics.count("share.cache.hit");
+                    // keeps recently shared images from being evicted first
+                    file.setLastModified(System.currentTimeMillis());
+                } else {
+                    Metrics.count("share.cache.miss");
+                    FutureTask<File> task = new FutureTask<>(new Callable<File>() {
+                        @Override
+                        public File call() throws IOException {
+                            try {
+                                render(sketch, file);
+                                evict(sketch.id, file);
+                                return file;
+                            } finally {
+                                synchronized (pending) {
+                                    pending.remove(name);
+                                }
+                            }
+                        }
+                    });
+                    pending.put(name, task);
+                    executor.execute(task);
+                }
+            }
+        }
+        return FileProvider.getUriForFile(context, AUTHORITY, file);
+    }
+
+    /**
+     * Deletes the images of a sketch, e.g. because the sketch was deleted. This runs after the
+     * renderings that are already queued, so none of them leaves an image behind.
+     */
+    public void remove(final int id) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                delete("sketch_" + id + "_");
+            }
+        });
+    }
+
+    /**
+     * Deletes all images, e.g. because the database was created anew and sketch ids are
+     * assigned again from the start.
+     */
+    public void clear() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                delete("");
+            }
+        });
+    }
+
+    private void delete(String prefix) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File f : files) {
+            if (f.getName().startsWith(prefix) && !f.delete())
+                Log.w(TAG, "Cannot delete " + f);
+        }
+    }
+
+    /**
+     * Blocks until the image with the given file name is rendered, if it is still pending.
+     */
+    void await(String name) {
+        Future<File> future;
+        synchronized (pending) {
+            future = pending.get(name);
+        }
+        if (future == null)
+            return;
+        try {
+            future.get(RENDER_TIMEOUT, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            Log.e(TAG, "Cannot render " + name, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Renders into a temporary file that is renamed when complete, so a reader never sees a
+     * partial image.
+     */
+    private void render(Sketch sketch, File file) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+
+        LinkedHashMap<MyPath, PaintOptions> paths = sketch.getPaths();
+        Bitmap background = sketch.getBitmap();
+        Point size = new Point();
+        SketchRenderer.computeExportSize(paths, background, MAX_IMAGE_SIZE, DEFAULT_IMAGE_SIZE, size);
+        Bitmap bitmap = Bitmap.createBitmap(size.x, size.y, Bitmap.Config.ARGB_8888);
+        File temp = new File(directory, file.getName() + ".tmp");
+        try {
+            SketchRenderer.render(bitmap, background, paths);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+                EncoderProfile.SHARE.compress(bitmap, out);
+            }
+            if (!temp.renameTo(file))
+                throw new IOException("Cannot rename " + temp);
+        } finally {
+            temp.delete();
+            bitmap.recycle();
+            if (background != null)
+                background.recycle();
+        }
+    }
+
+    /**
+     * Deletes older versions of the sketch and then the least recently shared images until the
+     * cache fits into its size limit again.
+     */
+    private void evict(int id, File keep) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        String prefix = "sketch_" + id + "_";
+        long size = 0;
+        for (File f : files) {
+            if (!f.equals(keep) && f.getName().startsWith(prefix) && f.delete())
+                continue;
+            size += f.length();
+        }
+        if (size <= MAX_SIZE)
+            return;
+
+        files = directory.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File f : files) {
+            if (size <= MAX_SIZE)
+                break;
+            if (f.equals(keep))
+                continue;
+            long length = f.length();
+            if (f.delete())
+                size -= length;
+        }
+    }
+}
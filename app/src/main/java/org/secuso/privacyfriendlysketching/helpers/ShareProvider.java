@@ -0,0 +1,54 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.helpers;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.FileProvider;
+
+import java.io.FileNotFoundException;
+
+/**
+ * Serves the images of {@link ShareCache}. Since a share hands out the URI before the image is
+ * rendered, the provider waits for a pending rendering before it reports the size or opens the
+ * file.
+ */
+
+public class ShareProvider extends FileProvider {
+
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        awaitFile(uri);
+        return super.query(uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        awaitFile(uri);
+        return super.openFile(uri, mode);
+    }
+
+    private void awaitFile(Uri uri) {
+        String name = uri.getLastPathSegment();
+        if (name != null && getContext() != null)
+            ShareCache.getInstance(getContext()).await(name);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.helpers;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.RectF;
+
+import com.divyanshu.draw.widget.MyPath;
+import com.divyanshu.draw.widget.PaintOptions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Renders stored sketches outside of the editor, e.g. for thumbnails and exports, and computes
+ * the derived values that such renderings depend on.
+ */
+
+public class SketchRenderer {
+
+    /**
+     * Computes the extent of the strokes with a margin of one stroke width around each, which
+     * is how thumbnails and exports have always been framed. The result always contains the
+     * origin, which is the center of the editor's initial viewport.
+     */
+    public static void computeBounds(LinkedHashMap<MyPath, PaintOptions> paths, RectF result) {
+        result.set(0.f, 0.f, 0.f, 0.f);
+        if (paths == null)
+            return;
+
+        RectF bounds = new RectF();
+        for (Map.Entry<MyPath, PaintOptions> pair : paths.entrySet()) {
+            pair.getKey().getBounds(bounds, pair.getValue().getStrokeWidth());
+            if (result.left > bounds.left)
+                result.left = bounds.left;
+            if (result.right < bounds.right)
+                result.right = bounds.right;
+            if (result.top > bounds.top)
+                result.top = bounds.top;
+            if (result.bottom < bounds.bottom)
+                result.bottom = bounds.bottom;
+        }
+    }
+
+    /**
+     * Computes the size of a rendering that shows the strokes at one pixel per pixel of the
+     * editor, scaled down so that the longer side is at most {@code maxSize}. Sketches without
+     * strokes take the size of their background image, or {@code defaultSize} if it has none.
+     */
+    public static void computeExportSize(LinkedHashMap<MyPath, PaintOptions> paths, Bitmap background,
+                                         int maxSize, int defaultSize, Point size) {
+        RectF bounds = new RectF();
+        computeBounds(paths, bounds);
+        int width = (int) Math.ceil(bounds.width());
+        int height = (int) Math.ceil(bounds.height());
+        if (width <= 1 || height <= 1) {
+            width = background != null && background.getWidth() > 1 ? background.getWidth() : defaultSize;
+            height = background != null && background.getHeight() > 1 ? background.getHeight() : defaultSize;
+        }
+        float scale = Math.min(1.f, (float) maxSize / Math.max(width, height));
+        size.set(Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)));
+    }
+
+    /**
+     * Draws a sketch on a white background fitted into the given mutable bitmap, whose previous
+     * content is overwritten. Since the result is opaque, the bitmap may be RGB_565.
+     */
+    public static Bitmap render(Bitmap bitmap, Bitmap background, LinkedHashMap<MyPath, PaintOptions> paths) {
+        long start = Metrics.begin("render.full");
+        try {
+            return draw(bitmap, background, paths, bitmap.getWidth(), bitmap.getHeight(), 0);
+        } finally {
+            Metrics.end("render.full", start);
+        }
+    }
+
+    /**
+     * Draws the rows from {@code top} on of a rendering of the given size into the bitmap, which
+     * has the full width but may be only a band of the height. Strokes outside of the band are
+     * skipped, so rendering an image band by band costs little more than rendering it at once.
+     */
+    public static Bitmap renderBand(Bitmap bitmap, Bitmap background, LinkedHashMap<MyPath, PaintOptions> paths,
+                                    int width, int height, int top) {
+        long start = Metrics.begin("render.band");
+        try {
+            return draw(bitmap, background, paths, width, height, top);
+        } finally {
+            Metrics.end("render.band", start);
+        }
+    }
+
+    private static Bitmap draw(Bitmap bitmap, Bitmap background, LinkedHashMap<MyPath, PaintOptions> paths,
+                               int width, int height, int top) {
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        canvas.translate(0, -top);
+
+        RectF sourceRect = new RectF(0.f, 0.f, width, height);
+        RectF targetRect = new RectF();
+        computeBounds(paths, targetRect);
+        Matrix transform = new Matrix();
+        transform.setRectToRect(targetRect, sourceRect, Matrix.ScaleToFit.CENTER);
+
+        if (background != null) {
+            RectF backgroundRect = new RectF();
+            backgroundRect.left = - background.getWidth() / 2.f;
+            backgroundRect.right = background.getWidth() / 2.f;
+            backgroundRect.top = - background.getHeight() / 2.f;
+            backgroundRect.bottom = + background.getHeight() / 2.f;
+            if (background.getWidth() == 1 && background.getHeight() == 1)
+                backgroundRect.set(sourceRect);
+            else
+                transform.mapRect(backgroundRect);
+
+            canvas.drawBitmap(background, null, backgroundRect, new Paint(Paint.FILTER_BITMAP_FLAG));
+        }
+
+        canvas.concat(transform);
+
+        if (paths != null) {
+            Paint paint = new Paint();
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setStrokeJoin(Paint.Join.ROUND);
+            paint.setStrokeCap(Paint.Cap.ROUND);
+            paint.setAntiAlias(true);
+            RectF bounds = new RectF();
+            for (Map.Entry<MyPath, PaintOptions> pair : paths.entrySet()) {
+                pair.getKey().getBounds(bounds, pair.getValue().getStrokeWidth() / 2);
+                if (canvas.quickReject(bounds, Canvas.EdgeType.AA))
+                    continue;
+
+                paint.setColor(pair.getValue().getColor());
+                paint.setAlpha(pair.getValue().getAlpha());
+                paint.setStrokeWidth(pair.getValue().getStrokeWidth());
+
+                pair.getKey().materialize();
+                canvas.drawPath(pair.getKey(), paint);
+            }
+        }
+
+        return bitmap;
+    }
+}
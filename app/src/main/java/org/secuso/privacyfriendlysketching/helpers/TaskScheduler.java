@@ -0,0 +1,432 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.helpers;
+
+import android.arch.lifecycle.Lifecycle;
+import android.arch.lifecycle.LifecycleObserver;
+import android.arch.lifecycle.LifecycleOwner;
+import android.arch.lifecycle.OnLifecycleEvent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.divyanshu.draw.metrics.Histogram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs all background work of the app on three shared pools: blocking I/O, CPU-bound rendering
+ * and encoding, and a single thread that serializes database writes.
+ *
+ * Each pool serves its queue by priority and, within the same priority, in submission order.
+ * A task submitted for a {@link LifecycleOwner} is cancelled when the owner is destroyed, and
+ * its callback is then never delivered. Every pool counts its queue depth and the time its
+ * tasks waited and ran, see {@link #getStats(int)}, and records both times in {@link Metrics}.
+ */
+
+public class TaskScheduler {
+    private final static String TAG = "TaskScheduler";
+
+    public final static int POOL_IO = 0;
+    public final static int POOL_CPU = 1;
+    public final static int POOL_DB_WRITE = 2;
+    private final static String[] POOL_NAMES = {"IO", "CPU", "DBWrite"};
+
+    /**
+     * For work the user is waiting for.
+     */
+    public final static int PRIORITY_HIGH = 0;
+    public final static int PRIORITY_NORMAL = 1;
+    /**
+     * For maintenance that can wait, e.g. derived data and prefetching.
+     */
+    public final static int PRIORITY_LOW = 2;
+
+    private final static int IO_POOL_SIZE = 4;
+    private final static long KEEP_ALIVE_SECONDS = 30;
+
+    public interface Callback<V> {
+        /**
+         * Called on the UI thread with the result of a task that was not cancelled.
+         */
+        void onTaskFinished(V result);
+
+        /**
+         * Called on the UI thread with the exception thrown by a task that was not cancelled.
+         */
+        void onTaskFailed(Throwable e);
+    }
+
+    /**
+     * A snapshot of the metrics of one pool.
+     */
+    public static class Stats {
+        public String pool;
+        public int queueDepth;
+        public int active;
+        public long completed;
+        public long cancelled;
+        public long totalWaitMillis;
+        public long maxWaitMillis;
+        public long totalRunMillis;
+
+        public long getAverageWaitMillis() {
+            return completed == 0 ? 0 : totalWaitMillis / completed;
+        }
+
+        public long getAverageRunMillis() {
+            return completed == 0 ? 0 : totalRunMillis / completed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d queued, %d active, %d done, %d cancelled, wait avg %d ms max %d ms, run avg %d ms",
+                    pool, queueDepth, active, completed, cancelled, getAverageWaitMillis(), maxWaitMillis, getAverageRunMillis());
+        }
+    }
+
+    private static TaskScheduler instance;
+
+    private final Pool[] pools = new Pool[3];
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong sequence = new AtomicLong();
+    private final ThreadLocal<Pool> currentPool = new ThreadLocal<>();
+    private final HashMap<LifecycleOwner, Binding> bindings = new HashMap<>();
+
+    private TaskScheduler() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        pools[POOL_IO] = new Pool(POOL_IO, IO_POOL_SIZE);
+        pools[POOL_CPU] = new Pool(POOL_CPU, processors);
+        pools[POOL_DB_WRITE] = new Pool(POOL_DB_WRITE, 1);
+    }
+
+    public static synchronized TaskScheduler getInstance() {
+        if (instance == null)
+            instance = new TaskScheduler();
+        return instance;
+    }
+
+    /**
+     * Queues work on a pool. The returned task can be cancelled, which interrupts it if it is
+     * already running.
+     */
+    public <V> Task<V> submit(int pool, int priority, Callable<V> callable) {
+        Task<V> task = new Task<>(pools[pool], priority, callable, null);
+        pools[pool].executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Queues work on a pool and delivers its result to the callback on the UI thread. Must be
+     * called on the UI thread. If an owner is given, the task is cancelled when the owner is
+     * destroyed.
+     */
+    public <V> Task<V> submit(LifecycleOwner owner, int pool, int priority, Callable<V> callable, Callback<V> callback) {
+        Task<V> task = new Task<>(pools[pool], priority, callable, callback);
+        if (owner != null) {
+            if (owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) {
+                task.cancel(false);
+                return task;
+            }
+            Binding binding = bindings.get(owner);
+            if (binding == null) {
+                binding = new Binding(owner);
+                bindings.put(owner, binding);
+                owner.getLifecycle().addObserver(binding);
+            }
+            binding.add(task);
+        }
+        pools[pool].executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Runs work on a pool and waits for its result. A caller that already runs on this pool
+     * runs the work directly, so the single database writer cannot wait for itself.
+     */
+    public <V> V call(int pool, int priority, Callable<V> callable) throws ExecutionException, InterruptedException {
+        if (currentPool.get() == pools[pool]) {
+            try {
+                return callable.call();
+            } catch (Exception e) {
+                throw new ExecutionException(e);
+            }
+        }
+        return submit(pool, priority, callable).get();
+    }
+
+    /**
+     * Returns an executor that queues plain runnables on a pool with the given priority.
+     */
+    public Executor getExecutor(final int pool, final int priority) {
+        return new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                submit(pool, priority, Executors.callable(command));
+            }
+        };
+    }
+
+    /**
+     * Returns an executor that runs its runnables one after another, in order, on a pool. It
+     * replaces a dedicated single thread for work that must not overlap.
+     */
+    public Executor newSerialExecutor(int pool, int priority) {
+        return new SerialExecutor(getExecutor(pool, priority));
+    }
+
+    public Stats getStats(int pool) {
+        return pools[pool].getStats();
+    }
+
+    public Stats[] getStats() {
+        Stats[] stats = new Stats[pools.length];
+        for (int i = 0; i < pools.length; i++)
+            stats[i] = pools[i].getStats();
+        return stats;
+    }
+
+    private void post(Runnable r) {
+        mainHandler.post(r);
+    }
+
+    public class Task<V> extends FutureTask<V> implements Comparable<Task<?>> {
+        private final Pool pool;
+        private final int priority;
+        private final long order;
+        private final long submitted;
+        private final Callback<V> callback;
+        private Binding binding;
+
+        Task(Pool pool, int priority, Callable<V> callable, Callback<V> callback) {
+            super(callable);
+            this.pool = pool;
+            this.priority = priority;
+            this.order = sequence.incrementAndGet();
+            this.submitted = SystemClock.elapsedRealtimeNanos();
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (isDone())
+                return;
+            long start = SystemClock.elapsedRealtimeNanos();
+            pool.onStart(start - submitted);
+            try {
+                super.run();
+            } finally {
+                pool.onFinish(SystemClock.elapsedRealtimeNanos() - start);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                pool.cancelled.incrementAndGet();
+                // keeps the queue depth accurate
+                pool.executor.remove(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void done() {
+            if (binding != null)
+                binding.remove(this);
+            if (callback == null || isCancelled())
+                return;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    // the owner may have been destroyed since the task finished
+                    if (isCancelled())
+                        return;
+                    try {
+                        callback.onTaskFinished(get());
+                    } catch (ExecutionException e) {
+                        callback.onTaskFailed(e.getCause());
+                    } catch (InterruptedException | CancellationException e) {
+                        // cannot happen, the task is done and was not cancelled
+                    }
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(@NonNull Task<?> other) {
+            if (priority != other.priority)
+                return Integer.compare(priority, other.priority);
+            return Long.compare(order, other.order);
+        }
+    }
+
+    /**
+     * Cancels the tasks of one owner when it is destroyed.
+     */
+    private class Binding implements LifecycleObserver {
+        private final LifecycleOwner owner;
+        private final ArrayList<Task<?>> tasks = new ArrayList<>();
+
+        Binding(LifecycleOwner owner) {
+            this.owner = owner;
+        }
+
+        synchronized void add(Task<?> task) {
+            task.binding = this;
+            tasks.add(task);
+        }
+
+        synchronized void remove(Task<?> task) {
+            tasks.remove(task);
+        }
+
+        @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+        void onDestroy() {
+            owner.getLifecycle().removeObserver(this);
+            bindings.remove(owner);
+            Task<?>[] pending;
+            synchronized (this) {
+                pending = tasks.toArray(new Task<?>[tasks.size()]);
+                tasks.clear();
+            }
+            for (Task<?> task : pending)
+                task.cancel(true);
+        }
+    }
+
+    private class Pool {
+        final String name;
+        final ThreadPoolExecutor executor;
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong cancelled = new AtomicLong();
+        final AtomicLong totalWait = new AtomicLong();
+        final AtomicLong maxWait = new AtomicLong();
+        final AtomicLong totalRun = new AtomicLong();
+        final Histogram waitTime;
+        final Histogram runTime;
+
+        Pool(int id, int size) {
+            this.name = POOL_NAMES[id];
+            this.waitTime = Metrics.histogram("pool." + name + ".wait_us");
+            this.runTime = Metrics.histogram("pool." + name + ".run_us");
+            this.executor = new ThreadPoolExecutor(size, size, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(@NonNull final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            currentPool.set(Pool.this);
+                            r.run();
+                        }
+                    }, TAG + " " + name + " #" + count.incrementAndGet());
+                }
+            });
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+
+        void onStart(long waitNanos) {
+            long waitMillis = waitNanos / 1000000;
+            waitTime.record(waitNanos / 1000);
+            active.incrementAndGet();
+            totalWait.addAndGet(waitMillis);
+            long max = maxWait.get();
+            while (waitMillis > max && !maxWait.compareAndSet(max, waitMillis))
+                max = maxWait.get();
+        }
+
+        void onFinish(long runNanos) {
+            runTime.record(runNanos / 1000);
+            active.decrementAndGet();
+            completed.incrementAndGet();
+            totalRun.addAndGet(runNanos / 1000000);
+        }
+
+        Stats getStats() {
+            Stats stats = new Stats();
+            stats.pool = name;
+            stats.queueDepth = executor.getQueue().size();
+            stats.active = active.get();
+            stats.completed = completed.get();
+            stats.cancelled = cancelled.get();
+            stats.totalWaitMillis = totalWait.get();
+            stats.maxWaitMillis = maxWait.get();
+            stats.totalRunMillis = totalRun.get();
+            return stats;
+        }
+    }
+
+    /**
+     * Hands one runnable at a time to another executor, like a single thread would run them.
+     */
+    private static class SerialExecutor implements Executor {
+        private final Executor executor;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private Runnable active;
+
+        SerialExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public synchronized void execute(@NonNull final Runnable r) {
+            tasks.offer(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        r.run();
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Serial task failed", e);
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if (active == null)
+                scheduleNext();
+        }
+
+        private synchronized void scheduleNext() {
+            if ((active = tasks.poll()) != null)
+                executor.execute(active);
+        }
+    }
+}
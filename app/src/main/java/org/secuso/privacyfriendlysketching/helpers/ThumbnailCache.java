@@ -0,0 +1,329 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.helpers;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import org.secuso.privacyfriendlysketching.export.EncoderProfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Caches rendered sketch thumbnails in two levels: an in-memory LRU bounded by the byte size of
+ * the bitmaps, and an on-disk cache of compressed thumbnails in the app's cache directory.
+ * The disk files are encrypted with AES-GCM under a key derived from the database passphrase,
+ * so thumbnails are no less protected than the sketches themselves.
+ *
+ * Entries are keyed by sketch id, version and thumbnail size. Since the version changes on every
+ * update a stale thumbnail is never returned; {@link #invalidate(int)} only frees the space of
+ * old versions.
+ *
+ * Thumbnails are drawn into and decoded into bitmaps of the shared {@link BitmapPool}. The cache
+ * holds one reference to every bitmap it keeps and {@code acquire} methods hand out another one,
+ * which the caller has to give back with {@link #release(Bitmap)} once it no longer shows it.
+ *
+ * Apart from {@link #acquireMemory(int, int, int)} and {@link #release(Bitmap)} all methods
+ * may block on disk and have to be called from a background thread.
+ */
+
+public class ThumbnailCache {
+    private final static String TAG = "ThumbnailCache";
+    private final static String DIRECTORY = "thumbnails";
+    private final static String KEY_INFO = "thumbnail-cache";
+    private final static int MAX_MEMORY_SIZE = 32 * 1024 * 1024;
+    private final static long MAX_DISK_SIZE = 32 * 1024 * 1024;
+    private final static int IV_LENGTH = 12;
+    private final static int TAG_LENGTH = 128;
+    private final static int MAX_POOL_SIZE = 8 * 1024 * 1024;
+
+    private static ThumbnailCache instance;
+
+    private final Context context;
+    private final File directory;
+    private final BitmapPool bitmapPool = new BitmapPool(MAX_POOL_SIZE);
+    private final LruCache<String, Bitmap> memoryCache;
+    private final SecureRandom random = new SecureRandom();
+    private SecretKeySpec secretKey;
+    private boolean keyLoaded = false;
+
+    private ThumbnailCache(Context context) {
+        this.context = context.getApplicationContext();
+        this.directory = new File(context.getCacheDir(), DIRECTORY);
+        int memorySize = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, MAX_MEMORY_SIZE);
+        this.memoryCache = new LruCache<String, Bitmap>(memorySize) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                bitmapPool.release(oldValue);
+            }
+        };
+    }
+
+    public static synchronized ThumbnailCache getInstance(Context context) {
+        if (instance == null)
+            instance = new ThumbnailCache(context);
+        return instance;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    /**
+     * Returns the thumbnail with a reference for the caller if it is held in memory, otherwise
+     * null. Safe to call on the UI thread.
+     */
+    public Bitmap acquireMemory(int id, int version, int size) {
+        synchronized (bitmapPool) {
+            Bitmap thumbnail = memoryCache.get(key(id, version, size));
+            if (thumbnail != null)
+                bitmapPool.acquire(thumbnail);
+            return thumbnail;
+        }
+    }
+
+    /**
+     * Returns the thumbnail with a reference for the caller from memory or disk, or null if it has
+     * to be rendered.
+     */
+    public Bitmap acquire(int id, int version, int size) {
+        Bitmap thumbnail = acquireMemory(id, version, size);
+        if (thumbnail != null)
+            return thumbnail;
+
+        String key = key(id, version, size);
+        File file = new File(directory, key);
+        if (!file.exists())
+            return null;
+        byte[] data = decrypt(file, key);
+        if (data == null) {
+            file.delete();
+            return null;
+        }
+        thumbnail = decode(data, size);
+        if (thumbnail != null) {
+            bitmapPool.acquire(thumbnail);
+            put(key, thumbnail);
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Returns whether the thumbnail is held in memory or on disk, without loading it.
+     */
+    public boolean contains(int id, int version, int size) {
+        String key = key(id, version, size);
+        return memoryCache.get(key) != null || new File(directory, key).exists();
+    }
+
+    /**
+     * Gives back a reference handed out by this cache or by {@link BitmapPool#get}.
+     */
+    public void release(Bitmap thumbnail) {
+        bitmapPool.release(thumbnail);
+    }
+
+    /**
+     * Stores a thumbnail in both levels. The caller keeps its own reference to the bitmap.
+     */
+    public void put(int id, int version, int size, Bitmap thumbnail) {
+        String key = key(id, version, size);
+        put(key, thumbnail);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            EncoderProfile.THUMBNAIL.compress(thumbnail, bos);
+        } catch (IOException e) {
+            return;
+        }
+        if (encrypt(bos.toByteArray(), key))
+            trimDisk();
+    }
+
+    /**
+     * Drops every cached version of the given sketch.
+     */
+    public void invalidate(int id) {
+        String prefix = id + "_";
+        for (String key : memoryCache.snapshot().keySet()) {
+            if (key.startsWith(prefix))
+                memoryCache.remove(key);
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (file.getName().startsWith(prefix))
+                file.delete();
+        }
+    }
+
+    public void trimMemory(int maxSize) {
+        memoryCache.trimToSize(maxSize);
+        bitmapPool.trimToSize(maxSize / 4);
+    }
+
+    public int getMemoryMaxSize() {
+        return memoryCache.maxSize();
+    }
+
+    private static String key(int id, int version, int size) {
+        return id + "_" + version + "_" + size;
+    }
+
+    private void put(String key, Bitmap thumbnail) {
+        // keeps a concurrent acquireMemory from taking a reference to an evicted bitmap
+        synchronized (bitmapPool) {
+            bitmapPool.acquire(thumbnail);
+            memoryCache.put(key, thumbnail);
+        }
+    }
+
+    private Bitmap decode(byte[] data, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        options.inBitmap = bitmapPool.takeFree(size, size, Bitmap.Config.RGB_565);
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // the stored thumbnail does not fit the reused bitmap
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    private void trimDisk() {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        long size = 0;
+        for (File file : files)
+            size += file.length();
+        if (size <= MAX_DISK_SIZE)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (size <= MAX_DISK_SIZE * 3 / 4)
+                break;
+            size -= file.length();
+            file.delete();
+        }
+    }
+
+    private synchronized SecretKeySpec getKey() {
+        if (!keyLoaded) {
+            keyLoaded = true;
+            char[] passphrase = EncryptionHelper.loadPassPhrase(context);
+            if (passphrase != null) {
+                byte[] secret = new byte[passphrase.length];
+                for (int i = 0; i < passphrase.length; i++)
+                    secret[i] = (byte) passphrase[i];
+                try {
+                    Mac mac = Mac.getInstance("HmacSHA256");
+                    mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+                    secretKey = new SecretKeySpec(mac.doFinal(KEY_INFO.getBytes(StandardCharsets.UTF_8)), 0, 16, "AES");
+                } catch (GeneralSecurityException e) {
+                    Log.e(TAG, "Cannot derive the thumbnail key", e);
+                }
+                Arrays.fill(secret, (byte) 0);
+                Arrays.fill(passphrase, '\0');
+            }
+        }
+        return secretKey;
+    }
+
+    private boolean encrypt(byte[] data, String name) {
+        SecretKeySpec key = getKey();
+        if (key == null || (!directory.isDirectory() && !directory.mkdirs()))
+            return false;
+
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        File temp = new File(directory, name + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, iv));
+            cipher.updateAAD(name.getBytes(StandardCharsets.UTF_8));
+            out.write(iv);
+            out.write(cipher.doFinal(data));
+        } catch (IOException | GeneralSecurityException e) {
+            Log.e(TAG, "Cannot write thumbnail " + name, e);
+            temp.delete();
+            return false;
+        }
+        return temp.renameTo(new File(directory, name));
+    }
+
+    private byte[] decrypt(File file, String name) {
+        SecretKeySpec key = getKey();
+        if (key == null)
+            return null;
+
+        byte[] content = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < content.length) {
+                int count = in.read(content, read, content.length - read);
+                if (count < 0)
+                    return null;
+                read += count;
+            }
+            if (content.length <= IV_LENGTH)
+                return null;
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, content, 0, IV_LENGTH));
+            cipher.updateAAD(name.getBytes(StandardCharsets.UTF_8));
+            return cipher.doFinal(content, IV_LENGTH, content.length - IV_LENGTH);
+        } catch (IOException | GeneralSecurityException e) {
+            Log.w(TAG, "Dropping unreadable thumbnail " + name);
+            return null;
+        }
+    }
+}
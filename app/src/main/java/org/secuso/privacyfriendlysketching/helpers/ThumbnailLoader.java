@@ -0,0 +1,220 @@
+/*
+ This file is part of Privacy Friendly Sketching.
+
+ Privacy Friendly Sketching is free software:
+ you can redistribute it and/or modify it under the terms of the
+ GNU General Public License as published by the Free Software Foundation,
+ either version 3 of the License, or any later version.
+
+ Privacy Friendly Sketching is distributed in the hope
+ that it will be useful, but WITHOUT ANY WARRANTY; without even
+ the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Privacy Friendly Sketching. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.secuso.privacyfriendlysketching.helpers;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import org.secuso.privacyfriendlysketching.database.RoomHandler;
+import org.secuso.privacyfriendlysketching.database.Sketch;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads gallery thumbnails on the CPU pool of the {@link TaskScheduler}, at most two at a time.
+ *
+ * Pending requests are ordered so that positions inside the visible range come first and,
+ * within the same visibility, the most recently requested one is served first. The number of
+ * pending requests is bounded; when it overflows, the least important request is dropped.
+ * A cancelled request is removed from the queue and its result is never delivered.
+ */
+
+public class ThumbnailLoader {
+    private final static int MAX_RUNNING = 2;
+    private final static int MAX_PENDING = 48;
+
+    public interface Callback {
+        /**
+         * Called on the UI thread with the loaded thumbnail, or null if the sketch could not be
+         * loaded. The receiver owns a reference to the thumbnail and has to release it through
+         * {@link ThumbnailCache#release(Bitmap)}.
+         */
+        void onThumbnailLoaded(int id, Bitmap thumbnail);
+    }
+
+    private final RoomHandler roomHandler;
+    private final ThumbnailCache thumbnailCache;
+    private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>();
+    private final Executor executor = TaskScheduler.getInstance()
+            .getExecutor(TaskScheduler.POOL_CPU, TaskScheduler.PRIORITY_HIGH);
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile boolean shutdown = false;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger sequence = new AtomicInteger();
+    private volatile int firstVisible = 0;
+    private volatile int lastVisible = -1;
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            Task task;
+            try {
+                while (!shutdown && (task = queue.poll()) != null)
+                    task.run();
+            } finally {
+                running.decrementAndGet();
+            }
+            // a request may have been queued after the last poll
+            if (!shutdown)
+                dispatch();
+        }
+    };
+
+    public ThumbnailLoader(RoomHandler roomHandler, ThumbnailCache thumbnailCache) {
+        this.roomHandler = roomHandler;
+        this.thumbnailCache = thumbnailCache;
+    }
+
+    /**
+     * Queues a thumbnail for the given adapter position. The returned task has to be cancelled
+     * when its view is rebound or recycled.
+     */
+    public Task load(int id, int version, int size, int position, Callback callback) {
+        Task task = new Task(id, version, size, position, callback);
+        task.visible = isVisible(position);
+        if (shutdown) {
+            task.cancelled = true;
+            return task;
+        }
+        queue.add(task);
+        if (queue.size() > MAX_PENDING)
+            dropLeastImportant();
+        dispatch();
+        return task;
+    }
+
+    /**
+     * Starts another drain on the shared pool unless enough are running. The queue stays here,
+     * so its order can still change while the requests wait.
+     */
+    private void dispatch() {
+        int n;
+        while ((n = running.get()) < MAX_RUNNING && !queue.isEmpty()) {
+            if (running.compareAndSet(n, n + 1))
+                executor.execute(drain);
+        }
+    }
+
+    /**
+     * Updates the range of adapter positions that is on screen and reorders pending requests.
+     */
+    public void setVisibleRange(int first, int last) {
+        if (first == firstVisible && last == lastVisible)
+            return;
+        firstVisible = first;
+        lastVisible = last;
+
+        ArrayList<Task> pending = new ArrayList<>(queue.size());
+        queue.drainTo(pending);
+        for (Task task : pending)
+            task.visible = isVisible(task.position);
+        queue.addAll(pending);
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        queue.clear();
+    }
+
+    private boolean isVisible(int position) {
+        return position >= firstVisible && position <= lastVisible;
+    }
+
+    private void dropLeastImportant() {
+        Task worst = null;
+        for (Task task : queue) {
+            if (worst == null || task.compareTo(worst) > 0)
+                worst = task;
+        }
+        if (worst != null)
+            worst.cancel();
+    }
+
+    public class Task implements Runnable, Comparable<Task> {
+        final int id;
+        final int version;
+        final int size;
+        final int position;
+        final int order;
+        final Callback callback;
+        volatile boolean visible;
+        private volatile boolean cancelled = false;
+
+        Task(int id, int version, int size, int position, Callback callback) {
+            this.id = id;
+            this.version = version;
+            this.size = size;
+            this.position = position;
+            this.order = sequence.incrementAndGet();
+            this.callback = callback;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            queue.remove(this);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(@NonNull Task other) {
+            if (visible != other.visible)
+                return visible ? -1 : 1;
+            return Integer.compare(other.order, order);
+        }
+
+        @Override
+        public void run() {
+            if (cancelled)
+                return;
+            Bitmap thumbnail = thumbnailCache.acquire(id, version, size);
+            Metrics.count(thumbnail != null ? "thumbnail.cache.hit" : "thumbnail.cache.miss");
+            if (thumbnail == null && !cancelled) {
+                Sketch sketch = roomHandler.getSketchSync(id);
+                if (sketch != null && !cancelled) {
+                    thumbnail = thumbnailCache.getBitmapPool().get(size, size, Bitmap.Config.RGB_565);
+                    SketchRenderer.render(thumbnail, sketch.getBitmap(), sketch.getPaths());
+                    // the row may have been saved again while the old version was read
+                    if (sketch.version == version)
+                        thumbnailCache.put(id, version, size, thumbnail);
+                }
+            }
+            if (cancelled) {
+                if (thumbnail != null)
+                    thumbnailCache.release(thumbnail);
+                return;
+            }
+
+            final Bitmap result = thumbnail;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled && !shutdown)
+                        callback.onThumbnailLoaded(id, result);
+                    else if (result != null)
+                        thumbnailCache.release(result);
+                }
+            });
+        }
+    }
+}
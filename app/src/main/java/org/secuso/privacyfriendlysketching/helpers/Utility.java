@@ -24,6 +24,8 @@ import android.util.Log;
 import com.divyanshu.draw.widget.MyPath;
 import com.divyanshu.draw.widget.PaintOptions;
 
+import org.secuso.privacyfriendlysketching.export.EncoderProfile;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -40,12 +42,15 @@ import java.util.LinkedHashMap;
 public class Utility {
 
     public static byte[] serializePaths(LinkedHashMap<MyPath, PaintOptions> paths) {
+        long start = Metrics.begin("codec.serializePaths");
         try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
              ObjectOutput out = new ObjectOutputStream(bos)) {
             out.writeObject(paths);
             return bos.toByteArray();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            Metrics.end("codec.serializePaths", start);
         }
 
         return new byte[0];
@@ -53,11 +58,14 @@ public class Utility {
 
     public static LinkedHashMap<MyPath, PaintOptions> deserializePaths(byte[] lines) {
         Log.i("Deserialization", String.format("Deserializing %d path bytes.", lines.length));
+        long start = Metrics.begin("codec.deserializePaths");
         try (ByteArrayInputStream bis = new ByteArrayInputStream(lines);
              ObjectInput in = new ObjectInputStream(bis)) {
             return (LinkedHashMap<MyPath, PaintOptions>) in.readObject();
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
+        } finally {
+            Metrics.end("codec.deserializePaths", start);
         }
 
         return null;
@@ -65,16 +73,23 @@ public class Utility {
 
     public static byte[] bitmapToBlob(Bitmap bmp) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        boolean result = bmp.compress(Bitmap.CompressFormat.PNG, 100, baos);
-        if (!result)
-            Log.e("Sketching", "Cannot convert bitmap to compressed array.");
+        try {
+            EncoderProfile.BACKGROUND.compress(bmp, baos);
+        } catch (IOException e) {
+            Log.e("Sketching", "Cannot convert bitmap to compressed array.", e);
+        }
         byte[] blob = baos.toByteArray();
         return blob;
     }
 
     public static Bitmap blobToBitmap(byte[] blob) {
         Log.i("Deserialization", String.format("Deserializing %d bitmap bytes.", blob.length));
-        return BitmapFactory.decodeByteArray(blob, 0, blob.length);
+        long start = Metrics.begin("codec.decodeBitmap");
+        try {
+            return BitmapFactory.decodeByteArray(blob, 0, blob.length);
+        } finally {
+            Metrics.end("codec.decodeBitmap", start);
+        }
     }
 
     public static boolean isExternalStorageWritable() {
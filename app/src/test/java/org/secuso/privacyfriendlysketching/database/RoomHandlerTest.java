@@ -0,0 +1,31 @@
+package org.secuso.privacyfriendlysketching.database;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RoomHandlerTest {
+    @Test
+    public void toMatchExpression_prefixTerms() {
+        assertEquals("\"tree*\"", RoomHandler.toMatchExpression("tree"));
+        assertEquals("\"tree*\" \"ho*\"", RoomHandler.toMatchExpression("tree ho"));
+    }
+
+    @Test
+    public void toMatchExpression_collapsesWhitespace() {
+        assertEquals("\"tree*\" \"ho*\"", RoomHandler.toMatchExpression("  tree \t\n ho  "));
+    }
+
+    @Test
+    public void toMatchExpression_dropsQuotes() {
+        assertEquals("\"tree*\" \"ho*\"", RoomHandler.toMatchExpression("\"tree\"ho\""));
+        assertEquals("\"OR*\" \"x*\"", RoomHandler.toMatchExpression("\" OR \"x"));
+    }
+
+    @Test
+    public void toMatchExpression_emptyInput() {
+        assertEquals("", RoomHandler.toMatchExpression(""));
+        assertEquals("", RoomHandler.toMatchExpression("   "));
+        assertEquals("", RoomHandler.toMatchExpression("\"\""));
+    }
+}